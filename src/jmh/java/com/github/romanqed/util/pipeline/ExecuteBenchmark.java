@@ -0,0 +1,53 @@
+package com.github.romanqed.util.pipeline;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the synchronous and asynchronous execution of flat pipelines of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBenchmark {
+    @Param({Pipelines.ARRAY, Pipelines.LINKED})
+    public String type;
+
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private Pipeline<Integer> pipeline;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        pipeline = Pipelines.create(type, size);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Object execute() throws Throwable {
+        return pipeline.execute(0);
+    }
+
+    @Benchmark
+    public Object async() {
+        return pipeline.async(0).join();
+    }
+
+    @Benchmark
+    public Object asyncExecutor() {
+        return pipeline.async(0, executor).join();
+    }
+}
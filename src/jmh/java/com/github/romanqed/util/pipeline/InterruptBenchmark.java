@@ -0,0 +1,52 @@
+package com.github.romanqed.util.pipeline;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the early exit from a pipeline of 100 actions by an {@link InterruptException}
+ * thrown at the specified position, compared to the execution without interruption.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterruptBenchmark {
+    private static final int SIZE = 100;
+
+    @Param({Pipelines.ARRAY, Pipelines.LINKED})
+    public String type;
+
+    @Param({"0", "50", "99"})
+    public int position;
+
+    private Pipeline<Integer> interrupted;
+    private Pipeline<Integer> complete;
+
+    @Setup
+    public void setup() {
+        interrupted = Pipelines.create(type, SIZE);
+        interrupted.put(position, value -> {
+            throw new InterruptException(value);
+        });
+        complete = Pipelines.create(type, SIZE);
+    }
+
+    @Benchmark
+    public Object interrupted() throws Throwable {
+        return interrupted.execute(0);
+    }
+
+    @Benchmark
+    public Object interruptedAsync() {
+        return interrupted.async(0).join();
+    }
+
+    @Benchmark
+    public Object complete() throws Throwable {
+        return complete.execute(0);
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of editing pipelines of different sizes.
+ * Each benchmark leaves the pipeline in its initial state, so the size stays constant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutationBenchmark {
+    @Param({Pipelines.ARRAY, Pipelines.LINKED})
+    public String type;
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private Pipeline<Integer> pipeline;
+    private Action<Integer, Integer> action;
+    private Integer middle;
+    private Integer extra;
+
+    @Setup
+    public void setup() {
+        pipeline = Pipelines.create(type, size);
+        action = Pipelines.increment();
+        middle = size / 2;
+        extra = size;
+    }
+
+    @Benchmark
+    public Object putRemove() {
+        pipeline.put(extra, action);
+        return pipeline.remove(extra);
+    }
+
+    @Benchmark
+    public Object replace() {
+        return pipeline.put(middle, action);
+    }
+
+    @Benchmark
+    public Object insertAfterRemove() {
+        pipeline.insertAfter(middle, extra, action);
+        return pipeline.remove(extra);
+    }
+
+    @Benchmark
+    public Object insertFirstRemove() {
+        pipeline.insertFirst(extra, action);
+        return pipeline.remove(extra);
+    }
+}
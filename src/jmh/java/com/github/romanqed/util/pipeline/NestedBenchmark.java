@@ -0,0 +1,64 @@
+package com.github.romanqed.util.pipeline;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the execution of pipelines nested into each other.
+ * Each level contains several actions and, except for the deepest one, the next level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestedBenchmark {
+    private static final int WIDTH = 4;
+
+    @Param({Pipelines.ARRAY, Pipelines.LINKED})
+    public String type;
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private Pipeline<Integer> pipeline;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        Pipeline<Integer> nested = null;
+        for (int i = 0; i < depth; ++i) {
+            Pipeline<Integer> level = Pipelines.create(type, WIDTH);
+            if (nested != null) {
+                level.put(WIDTH, nested);
+            }
+            nested = level;
+        }
+        pipeline = nested;
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Object execute() throws Throwable {
+        return pipeline.execute(0);
+    }
+
+    @Benchmark
+    public Object async() {
+        return pipeline.async(0).join();
+    }
+
+    @Benchmark
+    public Object asyncExecutor() {
+        return pipeline.async(0, executor).join();
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+
+/**
+ * Factory of the pipelines compared by the benchmarks.
+ */
+final class Pipelines {
+    static final String ARRAY = "array";
+    static final String LINKED = "linked";
+
+    private Pipelines() {
+    }
+
+    static Pipeline<Integer> create(String type) {
+        if (ARRAY.equals(type)) {
+            return new ArrayPipeline<>();
+        }
+        if (LINKED.equals(type)) {
+            return new LinkedPipeline<>();
+        }
+        throw new IllegalArgumentException("Unknown pipeline type: " + type);
+    }
+
+    static Pipeline<Integer> create(String type, int size) {
+        Pipeline<Integer> ret = create(type);
+        for (int i = 0; i < size; ++i) {
+            ret.put(i, increment());
+        }
+        return ret;
+    }
+
+    static Action<Integer, Integer> increment() {
+        return value -> value + 1;
+    }
+}
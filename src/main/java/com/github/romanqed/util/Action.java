@@ -2,6 +2,7 @@ package com.github.romanqed.util;
 
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 @FunctionalInterface
 public interface Action<T, R> {
@@ -24,6 +25,18 @@ public interface Action<T, R> {
      */
     R execute(T t) throws Throwable;
 
+    /**
+     * <p>Returns whether the action completes its work asynchronously.</p>
+     * <p>If true, {@link #async(Object, Executor)} returns without blocking the calling thread,
+     * so asynchronous pipelines start the action by it instead of {@link #execute(Object)}.
+     * Actions wrapping another action usually return the flag of the wrapped one.</p>
+     *
+     * @return true if the action is asynchronous, false otherwise
+     */
+    default boolean isAsync() {
+        return false;
+    }
+
     /**
      * Returns completable future contains this action executing.
      *
@@ -42,6 +55,26 @@ public interface Action<T, R> {
         });
     }
 
+    /**
+     * Returns completable future contains this action executing by the specified executor.
+     *
+     * @param t        the action argument
+     * @param executor the executor to use for asynchronous execution
+     * @return {@link CompletableFuture} returns action result
+     */
+    default CompletableFuture<R> async(T t, Executor executor) {
+        Objects.requireNonNull(executor);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(t);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+
     /**
      * Returns a composed action that first executes the {@code before}
      * action for its input, and then executes this action for the result.
@@ -55,7 +88,7 @@ public interface Action<T, R> {
      */
     default <V> Action<V, R> compose(Action<? super V, ? extends T> before) {
         Objects.requireNonNull(before);
-        return (V v) -> execute(before.execute(v));
+        return ComposedAction.of(before, this);
     }
 
     /**
@@ -71,6 +104,6 @@ public interface Action<T, R> {
      */
     default <V> Action<T, V> andThen(Action<? super R, ? extends V> after) {
         Objects.requireNonNull(after);
-        return (T t) -> after.execute(execute(t));
+        return ComposedAction.of(this, after);
     }
 }
@@ -0,0 +1,77 @@
+package com.github.romanqed.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>An action executing a flat sequence of actions, each of which receives the result of the previous one.
+ * Composing it with other composed actions merges their sequences instead of nesting them.</p>
+ * <p>Composed actions share a growing array of steps, each of them executes its own prefix of the array.
+ * Appending to the longest prefix claims the free space of the array instead of copying it,
+ * so a chain built step by step takes amortized constant time per step.</p>
+ *
+ * @param <T> the type of the input to the action
+ * @param <R> the type of the result of the action
+ */
+final class ComposedAction<T, R> implements Action<T, R> {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Action<Object, Object>[] steps;
+    private final AtomicInteger used;
+    private final int length;
+
+    private ComposedAction(Action<Object, Object>[] steps, AtomicInteger used, int length) {
+        this.steps = steps;
+        this.used = used;
+        this.length = length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Action<Object, Object>[] allocate(int length) {
+        return (Action<Object, Object>[]) new Action<?, ?>[Math.max(INITIAL_CAPACITY, length * 2)];
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T, R> Action<T, R> of(Action<?, ?> first, Action<?, ?> second) {
+        Action<Object, Object>[] tail;
+        int count;
+        if (second instanceof ComposedAction) {
+            ComposedAction<?, ?> composed = (ComposedAction<?, ?>) second;
+            tail = composed.steps;
+            count = composed.length;
+        } else {
+            tail = (Action<Object, Object>[]) new Action<?, ?>[]{second};
+            count = 1;
+        }
+        if (first instanceof ComposedAction) {
+            return ((ComposedAction<T, ?>) first).append(tail, count);
+        }
+        Action<Object, Object>[] steps = allocate(count + 1);
+        steps[0] = (Action<Object, Object>) first;
+        System.arraycopy(tail, 0, steps, 1, count);
+        return new ComposedAction<>(steps, new AtomicInteger(count + 1), count + 1);
+    }
+
+    private <V> Action<T, V> append(Action<Object, Object>[] tail, int count) {
+        int length = this.length + count;
+        // Only the longest prefix may claim the free space, the others are copied
+        if (length <= steps.length && used.compareAndSet(this.length, length)) {
+            System.arraycopy(tail, 0, steps, this.length, count);
+            return new ComposedAction<>(steps, used, length);
+        }
+        Action<Object, Object>[] steps = allocate(length);
+        System.arraycopy(this.steps, 0, steps, 0, this.length);
+        System.arraycopy(tail, 0, steps, this.length, count);
+        return new ComposedAction<>(steps, new AtomicInteger(length), length);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R execute(T t) throws Throwable {
+        Action<Object, Object>[] steps = this.steps;
+        Object data = t;
+        for (int i = 0; i < length; ++i) {
+            data = steps[i].execute(data);
+        }
+        return (R) data;
+    }
+}
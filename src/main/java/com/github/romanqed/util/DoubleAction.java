@@ -0,0 +1,55 @@
+package com.github.romanqed.util;
+
+import java.util.Objects;
+
+/**
+ * A specialization of {@link Action} that accepts and returns {@code double} values without boxing.
+ */
+@FunctionalInterface
+public interface DoubleAction {
+    /**
+     * Returns an action that always returns its input argument.
+     *
+     * @return an action that always returns its input argument
+     */
+    static DoubleAction identity() {
+        return t -> t;
+    }
+
+    /**
+     * Execute this action for the given argument.
+     *
+     * @param t the action argument
+     * @return the action result
+     * @throws Throwable any exception that can be thrown in the action process
+     */
+    double execute(double t) throws Throwable;
+
+    /**
+     * Returns a composed action that first executes the {@code before}
+     * action for its input, and then executes this action for the result.
+     *
+     * @param before the action to execute before this action is executed
+     * @return a composed action that first executes the {@code before}
+     * action and then executes this action
+     * @throws NullPointerException if before is null
+     */
+    default DoubleAction compose(DoubleAction before) {
+        Objects.requireNonNull(before);
+        return (double t) -> execute(before.execute(t));
+    }
+
+    /**
+     * Returns a composed action that first executes this action to
+     * its input, and then executes the {@code after} action to the result.
+     *
+     * @param after the action to apply after this action is applied
+     * @return a composed action that first executes this action and then
+     * executes the {@code after} action
+     * @throws NullPointerException if after is null
+     */
+    default DoubleAction andThen(DoubleAction after) {
+        Objects.requireNonNull(after);
+        return (double t) -> after.execute(execute(t));
+    }
+}
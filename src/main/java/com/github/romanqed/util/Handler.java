@@ -1,11 +1,53 @@
 package com.github.romanqed.util;
 
+import com.github.romanqed.util.concurrent.BatchedHandler;
+
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 @FunctionalInterface
 public interface Handler<T> {
 
+    /**
+     * Returns a handler that collects values into batches and passes them to the sink.
+     * A batch is flushed when it reaches the maximum size or the maximum delay has elapsed.
+     * The failures of the sink are passed to the uncaught exception handler of the flushing thread.
+     *
+     * @param sink     the handler receiving the batches
+     * @param maxSize  the maximum number of values in a batch
+     * @param maxDelay the maximum delay before a batch is flushed, in milliseconds
+     * @param <T>      the type of the input to the handler
+     * @return {@link BatchedHandler} instance, which should be closed to flush the remaining values
+     * @see BatchedHandler
+     */
+    static <T> BatchedHandler<T> batched(Handler<List<T>> sink, int maxSize, long maxDelay) {
+        return new BatchedHandler<>(sink, maxSize, maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a handler that collects values into batches and passes them to the sink.
+     * A batch is flushed when it reaches the maximum size or the maximum delay has elapsed.
+     * The batches the sink failed to handle are passed to the error handler with the exceptions.
+     *
+     * @param sink     the handler receiving the batches
+     * @param maxSize  the maximum number of values in a batch
+     * @param maxDelay the maximum delay before a batch is flushed, in milliseconds
+     * @param onError  the handler receiving the failed batches with the exceptions
+     * @param <T>      the type of the input to the handler
+     * @return {@link BatchedHandler} instance, which should be closed to flush the remaining values
+     * @see BatchedHandler
+     */
+    static <T> BatchedHandler<T> batched(Handler<List<T>> sink,
+                                         int maxSize,
+                                         long maxDelay,
+                                         BiConsumer<? super List<T>, ? super Throwable> onError) {
+        return new BatchedHandler<>(sink, maxSize, maxDelay, TimeUnit.MILLISECONDS, onError);
+    }
+
     /**
      * Performs this operation on the given argument.
      *
@@ -32,6 +74,26 @@ public interface Handler<T> {
         });
     }
 
+    /**
+     * Returns completable future contains this handler executing by the specified executor.
+     *
+     * @param t        the input argument
+     * @param executor the executor to use for asynchronous execution
+     * @return {@link CompletableFuture} returns {@link Void}
+     */
+    default CompletableFuture<Void> async(T t, Executor executor) {
+        Objects.requireNonNull(executor);
+        return CompletableFuture.runAsync(() -> {
+            try {
+                handle(t);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+
     /**
      * Returns a composed {@code Consumer} that performs, in sequence, this
      * operation followed by the {@code after} operation. If performing either
@@ -46,9 +108,6 @@ public interface Handler<T> {
      */
     default Handler<T> andThen(Handler<? super T> after) {
         Objects.requireNonNull(after);
-        return (T t) -> {
-            handle(t);
-            after.handle(t);
-        };
+        return ComposedHandler.of(this, after);
     }
 }
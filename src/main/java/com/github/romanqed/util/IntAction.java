@@ -0,0 +1,55 @@
+package com.github.romanqed.util;
+
+import java.util.Objects;
+
+/**
+ * A specialization of {@link Action} that accepts and returns {@code int} values without boxing.
+ */
+@FunctionalInterface
+public interface IntAction {
+    /**
+     * Returns an action that always returns its input argument.
+     *
+     * @return an action that always returns its input argument
+     */
+    static IntAction identity() {
+        return t -> t;
+    }
+
+    /**
+     * Execute this action for the given argument.
+     *
+     * @param t the action argument
+     * @return the action result
+     * @throws Throwable any exception that can be thrown in the action process
+     */
+    int execute(int t) throws Throwable;
+
+    /**
+     * Returns a composed action that first executes the {@code before}
+     * action for its input, and then executes this action for the result.
+     *
+     * @param before the action to execute before this action is executed
+     * @return a composed action that first executes the {@code before}
+     * action and then executes this action
+     * @throws NullPointerException if before is null
+     */
+    default IntAction compose(IntAction before) {
+        Objects.requireNonNull(before);
+        return (int t) -> execute(before.execute(t));
+    }
+
+    /**
+     * Returns a composed action that first executes this action to
+     * its input, and then executes the {@code after} action to the result.
+     *
+     * @param after the action to apply after this action is applied
+     * @return a composed action that first executes this action and then
+     * executes the {@code after} action
+     * @throws NullPointerException if after is null
+     */
+    default IntAction andThen(IntAction after) {
+        Objects.requireNonNull(after);
+        return (int t) -> after.execute(execute(t));
+    }
+}
@@ -1,7 +1,8 @@
 package com.github.romanqed.util.chain;
 
 public abstract class AbstractLink<T extends Link> implements Link {
-    private T tail;
+    // Links can be walked without locks, so a new link must be seen fully attached
+    private volatile T tail;
 
     @Override
     @SuppressWarnings("unchecked")
@@ -0,0 +1,263 @@
+package com.github.romanqed.util.concurrent;
+
+import com.github.romanqed.util.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>A handler that collects values from many threads into batches and passes them to a bulk sink.</p>
+ * <p>A batch is flushed when it reaches the maximum size, or when the maximum delay has elapsed
+ * since the first value was buffered. Full batches are flushed by the thread that filled them,
+ * and delayed batches are flushed by the specified executor. The sink is never called concurrently,
+ * and receives the values in the order they were buffered.</p>
+ * <p>The buffer is bounded, and the {@link OverflowPolicy} determines what happens when it is full.
+ * Closing the handler flushes all buffered values.</p>
+ * <p>Whichever thread flushes a batch, the exceptions thrown by the sink are never thrown to it.
+ * The failed batch and the exception are passed to the error handler instead, which can retry or log it.</p>
+ *
+ * @param <T> the type of the input to the handler
+ */
+public class BatchedHandler<T> implements Handler<T>, AutoCloseable {
+    private final Handler<List<T>> sink;
+    private final int maxSize;
+    private final long maxDelay;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+    private final BiConsumer<? super List<T>, ? super Throwable> onError;
+    private final Queue<T> buffer;
+    private final AtomicInteger size;
+    private final Semaphore permits;
+    private final ReentrantLock lock;
+    private final AtomicBoolean scheduled;
+    private final LongAdder flushed;
+    private final LongAdder dropped;
+    private final LongAdder failed;
+    private volatile boolean closed;
+
+    /**
+     * Creates the batching handler.
+     *
+     * @param sink     the handler receiving the batches
+     * @param maxSize  the maximum number of values in a batch
+     * @param capacity the maximum number of buffered values, not less than the batch size
+     * @param maxDelay the maximum delay before a batch is flushed
+     * @param unit     the unit of the delay
+     * @param policy   the behaviour when the buffer is full
+     * @param executor the executor flushing the delayed batches
+     * @param onError  the handler receiving the batches the sink failed to handle, with the exceptions
+     */
+    public BatchedHandler(Handler<List<T>> sink,
+                          int maxSize,
+                          int capacity,
+                          long maxDelay,
+                          TimeUnit unit,
+                          OverflowPolicy policy,
+                          Executor executor,
+                          BiConsumer<? super List<T>, ? super Throwable> onError) {
+        this.sink = Objects.requireNonNull(sink);
+        this.policy = Objects.requireNonNull(policy);
+        this.executor = Objects.requireNonNull(executor);
+        this.onError = Objects.requireNonNull(onError);
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (capacity < maxSize) {
+            throw new IllegalArgumentException("Capacity must not be less than the batch size");
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.maxDelay = unit.toNanos(maxDelay);
+        this.buffer = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.permits = new Semaphore(capacity);
+        this.lock = new ReentrantLock();
+        this.scheduled = new AtomicBoolean();
+        this.flushed = new LongAdder();
+        this.dropped = new LongAdder();
+        this.failed = new LongAdder();
+    }
+
+    /**
+     * Creates the batching handler, which buffers up to four batches, blocks the callers when
+     * the buffer is full and flushes the delayed batches by {@link VirtualThreads#executor()}.
+     *
+     * @param sink     the handler receiving the batches
+     * @param maxSize  the maximum number of values in a batch
+     * @param maxDelay the maximum delay before a batch is flushed
+     * @param unit     the unit of the delay
+     * @param onError  the handler receiving the batches the sink failed to handle, with the exceptions
+     */
+    public BatchedHandler(Handler<List<T>> sink,
+                          int maxSize,
+                          long maxDelay,
+                          TimeUnit unit,
+                          BiConsumer<? super List<T>, ? super Throwable> onError) {
+        this(sink, maxSize, maxSize * 4, maxDelay, unit, OverflowPolicy.BLOCK, VirtualThreads.executor(), onError);
+    }
+
+    /**
+     * Creates the batching handler, which buffers up to four batches, blocks the callers when
+     * the buffer is full and flushes the delayed batches by {@link VirtualThreads#executor()}.
+     * The failures of the sink are passed to the uncaught exception handler of the flushing thread,
+     * which logs them by default.
+     *
+     * @param sink     the handler receiving the batches
+     * @param maxSize  the maximum number of values in a batch
+     * @param maxDelay the maximum delay before a batch is flushed
+     * @param unit     the unit of the delay
+     */
+    public BatchedHandler(Handler<List<T>> sink, int maxSize, long maxDelay, TimeUnit unit) {
+        this(sink, maxSize, maxDelay, unit, BatchedHandler::report);
+    }
+
+    private static void report(List<?> batch, Throwable throwable) {
+        Thread thread = Thread.currentThread();
+        RuntimeException failure = new RuntimeException(
+                "The sink failed to handle a batch of " + batch.size() + " values", throwable);
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+    }
+
+    @Override
+    public void handle(T t) throws Throwable {
+        Objects.requireNonNull(t);
+        if (closed) {
+            throw new IllegalStateException("Handler is closed");
+        }
+        if (!permits.tryAcquire()) {
+            switch (policy) {
+                case BLOCK:
+                    permits.acquire();
+                    break;
+                case DROP:
+                    dropped.increment();
+                    return;
+                default:
+                    throw new RejectedExecutionException("Batch buffer is full");
+            }
+        }
+        buffer.offer(t);
+        int buffered = size.incrementAndGet();
+        // The value may be buffered after close has drained the buffer, then it is flushed here
+        if (closed) {
+            flush();
+            return;
+        }
+        if (buffered >= maxSize) {
+            // If the lock is held, its owner will see the full batch after its flush
+            while (size.get() >= maxSize && lock.tryLock()) {
+                try {
+                    while (size.get() >= maxSize) {
+                        flush(maxSize);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } else if (scheduled.compareAndSet(false, true)) {
+            Delayer.schedule(() -> executor.execute(this::expire), maxDelay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void expire() {
+        // Values buffered after this point schedule a new timer
+        scheduled.set(false);
+        flush();
+    }
+
+    private void drain() {
+        while (!buffer.isEmpty()) {
+            flush(maxSize);
+        }
+    }
+
+    private void flush(int limit) {
+        List<T> batch = new ArrayList<>(Math.min(limit, Math.max(size.get(), 1)));
+        T value;
+        while (batch.size() < limit && (value = buffer.poll()) != null) {
+            batch.add(value);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        size.addAndGet(-batch.size());
+        permits.release(batch.size());
+        try {
+            sink.handle(batch);
+            flushed.increment();
+        } catch (Throwable e) {
+            failed.increment();
+            try {
+                onError.accept(batch, e);
+            } catch (Throwable ignored) {
+                // The error handler must not break the flushing of the other batches
+            }
+        }
+    }
+
+    /**
+     * Flushes all buffered values in the calling thread.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects new values and flushes all buffered values in the calling thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush();
+    }
+
+    /**
+     * @return true if the handler is closed, false otherwise
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of buffered values
+     */
+    public int getSize() {
+        return Math.max(size.get(), 0);
+    }
+
+    /**
+     * @return the number of batches successfully passed to the sink
+     */
+    public long getFlushed() {
+        return flushed.sum();
+    }
+
+    /**
+     * @return the number of values discarded because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of batches the sink failed to handle
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+}
@@ -0,0 +1,349 @@
+package com.github.romanqed.util.concurrent;
+
+import com.github.romanqed.util.Action;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>An action that memoizes the results of a pure action in a bounded concurrent cache keyed by the input.</p>
+ * <p>When the number of cached results exceeds the maximum size, the oldest ones are evicted.
+ * Results being computed are neither counted nor evicted, so concurrent callers always wait for them.
+ * Results can also expire after a fixed time since they were computed.</p>
+ * <p>Concurrent misses on the same input execute the wrapped action only once, the other callers wait
+ * for its result. Exceptions are not cached. A null input is cached like any other input.</p>
+ * <p>Asynchronous executions wait for a result being computed without blocking the calling thread.</p>
+ * <p>The wrapped action must not execute the caching action for the same input recursively,
+ * such a synchronous call fails with an {@link IllegalStateException}.</p>
+ *
+ * @param <T> the type of the input to the action
+ * @param <R> the type of the result of the action
+ */
+public class CachedAction<T, R> implements Action<T, R> {
+    // Stands for the null input, which cannot be a key of the concurrent map
+    private static final Object NULL = new Object();
+    private static final int LOADING = 0;
+    private static final int LIVE = 1;
+    private static final int RETIRED = 2;
+
+    private final Action<T, R> body;
+    private final int maximumSize;
+    private final long expireNanos;
+    private final ConcurrentMap<Object, Entry<R>> cache;
+    private final Queue<Entry<R>> order;
+    private final AtomicInteger live;
+    private final AtomicInteger nodes;
+    private final AtomicBoolean compacting;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Creates the caching action.
+     *
+     * @param body        the pure action whose results will be cached
+     * @param maximumSize the maximum number of cached results
+     * @param expireAfter the time after which a result expires, non-positive value means never
+     * @param unit        the unit of expireAfter
+     */
+    public CachedAction(Action<T, R> body, int maximumSize, long expireAfter, TimeUnit unit) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.body = Objects.requireNonNull(body);
+        this.maximumSize = maximumSize;
+        this.expireNanos = expireAfter > 0 ? unit.toNanos(expireAfter) : 0;
+        this.cache = new ConcurrentHashMap<>();
+        this.order = new ConcurrentLinkedQueue<>();
+        this.live = new AtomicInteger();
+        this.nodes = new AtomicInteger();
+        this.compacting = new AtomicBoolean();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    public CachedAction(Action<T, R> body, int maximumSize) {
+        this(body, maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    private static Object mask(Object t) {
+        return t == null ? NULL : t;
+    }
+
+    private boolean isExpired(Entry<R> entry, long now) {
+        return expireNanos > 0 && entry.future.isDone() && now - entry.loaded > expireNanos;
+    }
+
+    // A computed entry joins the count of live entries, unless it was already removed from the cache
+    private void admit(Entry<R> entry) {
+        if (entry.state.compareAndSet(LOADING, LIVE)) {
+            live.incrementAndGet();
+            nodes.incrementAndGet();
+            order.add(entry);
+            evict();
+        }
+    }
+
+    // Each entry leaves the count of live entries exactly once, whoever removed it from the cache
+    private void retire(Entry<R> entry) {
+        if (entry.state.getAndSet(RETIRED) == LIVE) {
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * Puts the created entry into the cache, unless there is an unexpired entry for the key.
+     *
+     * @return the existing entry, or null if the created one was put
+     */
+    private Entry<R> insert(Object key, Entry<R> created) {
+        while (true) {
+            Entry<R> existing = cache.putIfAbsent(key, created);
+            if (existing == null) {
+                break;
+            }
+            if (!isExpired(existing, System.nanoTime())) {
+                hits.increment();
+                return existing;
+            }
+            if (cache.replace(key, existing, created)) {
+                retire(existing);
+                break;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void complete(Entry<R> created, R value) {
+        created.loaded = System.nanoTime();
+        created.future.complete(value);
+        admit(created);
+    }
+
+    private void fail(Entry<R> created, Throwable throwable) {
+        if (cache.remove(created.key, created)) {
+            retire(created);
+        }
+        created.future.completeExceptionally(throwable);
+    }
+
+    @Override
+    public R execute(T t) throws Throwable {
+        Object key = mask(t);
+        Entry<R> entry = cache.get(key);
+        if (entry != null && !isExpired(entry, System.nanoTime())) {
+            hits.increment();
+            return entry.get();
+        }
+        Entry<R> created = new Entry<>(key, Thread.currentThread());
+        Entry<R> existing = insert(key, created);
+        if (existing != null) {
+            return existing.get();
+        }
+        R ret;
+        try {
+            ret = body.execute(t);
+        } catch (Throwable e) {
+            fail(created, e);
+            throw e;
+        } finally {
+            created.loader = null;
+        }
+        complete(created, ret);
+        return ret;
+    }
+
+    /**
+     * Waiting for a result being computed does not block, so the action is asynchronous.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<R> async(T t) {
+        return lookup(t, () -> body.async(t));
+    }
+
+    /**
+     * Returns completable future contains this action executing.
+     * Cached results are returned without submitting a task, a missing result
+     * is computed by the asynchronous execution of the wrapped action by the specified executor.
+     *
+     * @param t        the action argument
+     * @param executor the executor to use for asynchronous execution
+     * @return {@link CompletableFuture} returns action result
+     */
+    @Override
+    public CompletableFuture<R> async(T t, Executor executor) {
+        Objects.requireNonNull(executor);
+        return lookup(t, () -> body.async(t, executor));
+    }
+
+    private CompletableFuture<R> lookup(T t, Supplier<CompletableFuture<R>> loader) {
+        Object key = mask(t);
+        Entry<R> entry = cache.get(key);
+        if (entry != null && !isExpired(entry, System.nanoTime())) {
+            hits.increment();
+            return entry.view();
+        }
+        // The result is computed by another thread, so recursive calls cannot be detected
+        Entry<R> created = new Entry<>(key, null);
+        Entry<R> existing = insert(key, created);
+        if (existing != null) {
+            return existing.view();
+        }
+        CompletableFuture<R> future;
+        try {
+            future = loader.get();
+        } catch (Throwable e) {
+            fail(created, e);
+            return created.view();
+        }
+        future.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                complete(created, value);
+            } else {
+                fail(created, throwable instanceof CompletionException && throwable.getCause() != null ?
+                        throwable.getCause() : throwable);
+            }
+        });
+        return created.view();
+    }
+
+    private void evict() {
+        while (live.get() > maximumSize) {
+            Entry<R> oldest = order.poll();
+            if (oldest == null) {
+                break;
+            }
+            nodes.decrementAndGet();
+            // A retired entry was already replaced or invalidated, and does not take a place
+            if (oldest.state.get() == RETIRED) {
+                continue;
+            }
+            if (cache.remove(oldest.key, oldest)) {
+                evictions.increment();
+            }
+            retire(oldest);
+        }
+        // Retired entries stay in the queue until they reach its head, so they are purged
+        // when they outnumber the live ones, which takes amortized constant time
+        if (nodes.get() > 2 * maximumSize && compacting.compareAndSet(false, true)) {
+            try {
+                Iterator<Entry<R>> iterator = order.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().state.get() == RETIRED) {
+                        iterator.remove();
+                    }
+                }
+                nodes.set(order.size());
+            } finally {
+                compacting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Removes the cached result for the specified input.
+     *
+     * @param t the input
+     */
+    public void invalidate(T t) {
+        Entry<R> removed = cache.remove(mask(t));
+        if (removed != null) {
+            retire(removed);
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void invalidateAll() {
+        for (Entry<R> entry : cache.values()) {
+            if (cache.remove(entry.key, entry)) {
+                retire(entry);
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached results, including the ones being computed
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of executions served from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of executions that executed the wrapped action
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results evicted due to the size limit
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the ratio of hits to all executions, or 0 if there were no executions
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static final class Entry<R> {
+        private final Object key;
+        private final CompletableFuture<R> future;
+        private final AtomicInteger state;
+        private volatile Thread loader;
+        private long loaded;
+
+        private Entry(Object key, Thread loader) {
+            this.key = key;
+            this.future = new CompletableFuture<>();
+            this.state = new AtomicInteger(LOADING);
+            this.loader = loader;
+        }
+
+        // Callers get a dependent future, so they cannot complete or cancel the shared one
+        private CompletableFuture<R> view() {
+            return future.thenApply(Function.identity());
+        }
+
+        private R get() throws Throwable {
+            if (loader == Thread.currentThread()) {
+                throw new IllegalStateException("Recursive execution for the same input");
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() == null ? e : e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.github.romanqed.util.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * <p>A limiter of in-flight executions, which adapts the limit to the measured latency
+ * using the additive-increase/multiplicative-decrease algorithm, like TCP congestion control.</p>
+ * <p>The limit grows by one per limit of successful executions while the latency stays close
+ * to the baseline, and shrinks by a tenth when the latency exceeds the baseline twice.
+ * The baseline is the lowest observed latency. While the limit is at its minimum, the latency
+ * cannot be blamed on concurrency, so the baseline drifts towards the recent samples,
+ * and a permanent slowdown of the dependency is eventually accepted.</p>
+ * <p>Excess executions are either rejected at once with a {@link RejectedExecutionException},
+ * or wait in a bounded queue for a limited time. The queue is served in the order of arrival,
+ * and new executions do not overtake the waiting ones. Asynchronous executions wait
+ * without blocking a thread and are started by the execution releasing the permit.</p>
+ * <p>The measurements are applied without locks, so the limiter does not serialize the executions.</p>
+ */
+public class ConcurrencyLimiter {
+    private static final double BACKOFF = 0.9;
+    private static final double TOLERANCE = 2.0;
+    private static final double DRIFT = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long maxWait;
+    private final AtomicInteger inflight;
+    private final LongAdder rejected;
+    private final ReentrantLock lock;
+    private final Queue<Waiter> queue;
+    // The bits of the limit, which is fractional to grow by one per limit of executions
+    private final AtomicLong limit;
+    private final AtomicLong baseline;
+    private final AtomicLong lastDecrease;
+    private volatile int waiting;
+
+    /**
+     * Creates the limiter, which queues excess executions.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit     the minimum limit
+     * @param maxLimit     the maximum limit
+     * @param queueSize    the maximum number of waiting executions, 0 to reject them at once
+     * @param maxWait      the maximum time to wait
+     * @param unit         the unit of the time to wait
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int queueSize, long maxWait, TimeUnit unit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must be positive and ordered");
+        }
+        if (queueSize < 0 || maxWait < 0) {
+            throw new IllegalArgumentException("Queue size and wait time must not be negative");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.maxWait = unit.toNanos(maxWait);
+        this.inflight = new AtomicInteger();
+        this.rejected = new LongAdder();
+        this.lock = new ReentrantLock();
+        this.queue = new ArrayDeque<>();
+        this.limit = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+        this.baseline = new AtomicLong();
+        this.lastDecrease = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Creates the limiter, which rejects excess executions at once.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit     the minimum limit
+     * @param maxLimit     the maximum limit
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 0, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public ConcurrencyLimiter() {
+        this(20, 1, 200);
+    }
+
+    private double limit() {
+        return Double.longBitsToDouble(limit.get());
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= (int) limit()) {
+                return false;
+            }
+        } while (!inflight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private RejectedExecutionException reject() {
+        rejected.increment();
+        return new RejectedExecutionException("Concurrency limit exceeded");
+    }
+
+    // Wakes up the first waiting execution, and admits the asynchronous ones at the head while there are permits
+    private void signal() {
+        List<Waiter> admitted = null;
+        lock.lock();
+        try {
+            Waiter first;
+            while ((first = queue.peek()) != null) {
+                if (first.condition != null) {
+                    first.condition.signal();
+                    break;
+                }
+                if (!tryAcquire()) {
+                    break;
+                }
+                queue.poll();
+                if (admitted == null) {
+                    admitted = new ArrayList<>();
+                }
+                admitted.add(first);
+            }
+            waiting = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        if (admitted == null) {
+            return;
+        }
+        // The futures are completed outside the lock, as they start the executions
+        for (Waiter waiter : admitted) {
+            if (!waiter.future.complete(System.nanoTime())) {
+                inflight.decrementAndGet();
+                signal();
+            }
+        }
+    }
+
+    /**
+     * Acquires a permit for an execution, waiting in the queue if necessary.
+     *
+     * @return the start time of the execution, which must be passed to {@link #release(long, boolean)}
+     * @throws InterruptedException       if the waiting thread is interrupted
+     * @throws RejectedExecutionException if the limit is reached and the execution cannot wait
+     */
+    long acquire() throws InterruptedException {
+        // The waiting executions have priority over the new ones
+        if (waiting == 0 && tryAcquire()) {
+            return System.nanoTime();
+        }
+        if (queueSize == 0) {
+            throw reject();
+        }
+        boolean queued = false;
+        lock.lockInterruptibly();
+        try {
+            if (queue.size() >= queueSize) {
+                throw reject();
+            }
+            Waiter self = new Waiter(lock.newCondition());
+            queue.add(self);
+            queued = true;
+            // Releases check the waiting count after freeing the permit, so no signal is missed
+            waiting = queue.size();
+            try {
+                long nanos = maxWait;
+                while (queue.peek() != self || !tryAcquire()) {
+                    if (nanos <= 0) {
+                        throw reject();
+                    }
+                    nanos = self.condition.awaitNanos(nanos);
+                }
+            } finally {
+                queue.remove(self);
+                waiting = queue.size();
+            }
+        } finally {
+            lock.unlock();
+            // The next execution may take a permit that is still free, or the one this execution gave up
+            if (queued && waiting > 0) {
+                signal();
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Acquires a permit for an execution without blocking the calling thread.
+     * If the execution has to wait, the future is completed by the thread releasing the permit.
+     *
+     * @return a future completed with the start time of the execution, which must be passed
+     * to {@link #release(long, boolean)}, or with a {@link RejectedExecutionException}
+     */
+    CompletableFuture<Long> acquireAsync() {
+        if (waiting == 0 && tryAcquire()) {
+            return CompletableFuture.completedFuture(System.nanoTime());
+        }
+        CompletableFuture<Long> ret = new CompletableFuture<>();
+        if (queueSize == 0) {
+            ret.completeExceptionally(reject());
+            return ret;
+        }
+        Waiter self = new Waiter(null);
+        lock.lock();
+        try {
+            if (queue.size() >= queueSize) {
+                ret.completeExceptionally(reject());
+                return ret;
+            }
+            queue.add(self);
+            waiting = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        // A permit may have been freed before the execution was queued
+        signal();
+        if (!self.future.isDone()) {
+            ScheduledFuture<?> timer = Delayer.schedule(() -> expire(self), maxWait, TimeUnit.NANOSECONDS);
+            self.future.whenComplete((value, throwable) -> timer.cancel(false));
+        }
+        return self.future;
+    }
+
+    private void expire(Waiter waiter) {
+        boolean head;
+        lock.lock();
+        try {
+            head = queue.peek() == waiter;
+            if (!queue.remove(waiter)) {
+                return;
+            }
+            waiting = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        waiter.future.completeExceptionally(reject());
+        if (head && waiting > 0) {
+            signal();
+        }
+    }
+
+    /**
+     * Releases the permit and adjusts the limit by the latency of a successful execution.
+     *
+     * @param start   the start time returned by {@link #acquire()}
+     * @param success true if the execution completed normally, false otherwise
+     */
+    void release(long start, boolean success) {
+        int current = inflight.getAndDecrement();
+        if (success) {
+            sample(Math.max(System.nanoTime() - start, 1), current);
+        }
+        if (waiting > 0) {
+            signal();
+        }
+    }
+
+    private double update(DoubleUnaryOperator operator) {
+        long current;
+        double updated;
+        do {
+            current = limit.get();
+            updated = operator.applyAsDouble(Double.longBitsToDouble(current));
+        } while (!limit.compareAndSet(current, Double.doubleToRawLongBits(updated)));
+        return updated;
+    }
+
+    private void sample(long latency, int inflight) {
+        // Lost races between concurrent samples only make the estimates slightly less precise
+        long baseline = this.baseline.get();
+        if (baseline == 0 || latency < baseline) {
+            this.baseline.compareAndSet(baseline, latency);
+            baseline = latency;
+        } else if (limit() <= minLimit) {
+            this.baseline.compareAndSet(baseline, baseline + (long) ((latency - baseline) * DRIFT));
+        }
+        if (latency > baseline * TOLERANCE) {
+            // Decrease at most once per latency, as the executions started before it overlap the overload
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last > latency && lastDecrease.compareAndSet(last, now)) {
+                update(limit -> Math.max(minLimit, limit * BACKOFF));
+            }
+            return;
+        }
+        double limit = limit();
+        // Grow only while the limit is used, otherwise it is not confirmed by the samples
+        if (inflight * 2 >= limit) {
+            double updated = update(value -> Math.min(maxLimit, value + 1 / value));
+            if ((int) updated > (int) limit && waiting > 0) {
+                signal();
+            }
+        }
+    }
+
+    /**
+     * @return the current limit of in-flight executions
+     */
+    public int getLimit() {
+        return (int) limit();
+    }
+
+    /**
+     * @return the number of in-flight executions
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * @return the number of waiting executions
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return the number of rejected executions
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter{limit=" + getLimit() + ", inflight=" + getInflight() + "}";
+    }
+
+    // A waiting execution, either a blocked thread or an asynchronous one without the condition
+    private static final class Waiter {
+        private final Condition condition;
+        private final CompletableFuture<Long> future;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+            this.future = condition == null ? new CompletableFuture<>() : null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.romanqed.util.concurrent;
+
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * <p>A shared timer for scheduling delayed actions, which is missing in Java 8.</p>
+ * <p>All actions are executed by a single daemon thread, so they must be short,
+ * for example, completing a future or submitting a task to another executor.</p>
+ */
+public final class Delayer {
+    private static final ScheduledThreadPoolExecutor EXECUTOR;
+
+    static {
+        EXECUTOR = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread ret = new Thread(runnable, "java-utils-delayer");
+            ret.setDaemon(true);
+            return ret;
+        });
+        EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedules the action to be executed after the delay.
+     *
+     * @param action the action to be executed
+     * @param delay  the delay
+     * @param unit   the unit of the delay
+     * @return {@link ScheduledFuture} that can be used to cancel the action
+     */
+    public static ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit) {
+        Objects.requireNonNull(action);
+        return EXECUTOR.schedule(action, delay, unit);
+    }
+
+    /**
+     * Returns an executor that submits tasks to the specified executor after the delay.
+     *
+     * @param delay    the delay
+     * @param unit     the unit of the delay
+     * @param executor the executor that will execute the tasks
+     * @return delayed {@link Executor}
+     */
+    public static Executor delayedExecutor(long delay, TimeUnit unit, Executor executor) {
+        Objects.requireNonNull(unit);
+        Objects.requireNonNull(executor);
+        return task -> schedule(() -> executor.execute(task), delay, unit);
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.romanqed.util.concurrent;
+
+import com.github.romanqed.util.Action;
+
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>An action that hedges the execution of an idempotent action to cut its tail latency.</p>
+ * <p>If the first attempt has not finished within the hedging delay, a second attempt is started in parallel.
+ * The first successful result wins and the losing attempt is cancelled. A failed attempt completes
+ * the execution only if there is no other attempt in progress.</p>
+ * <p>The delay is either fixed, or equal to the observed percentile of the attempt latency.
+ * Until enough latencies are observed, the initial delay is used.</p>
+ * <p>Attempts are executed by the tasks of the specified {@link TaskFactory}.</p>
+ *
+ * @param <T> the type of the input to the action
+ * @param <R> the type of the result of the action
+ */
+public class HedgedAction<T, R> implements Action<T, R> {
+    private static final long MIN_SAMPLES = 32;
+
+    private final Action<T, R> body;
+    private final TaskFactory factory;
+    private final long delay;
+    private final double percentile;
+    private final Histogram latency;
+    private final LongAdder fired;
+    private final LongAdder won;
+
+    private HedgedAction(Action<T, R> body, TaskFactory factory, long delay, TimeUnit unit, double percentile) {
+        this.body = Objects.requireNonNull(body);
+        this.factory = Objects.requireNonNull(factory);
+        if (!factory.hasExecutor()) {
+            throw new IllegalArgumentException("The task factory must have an executor");
+        }
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative");
+        }
+        this.delay = unit.toNanos(delay);
+        this.percentile = percentile;
+        this.latency = new Histogram();
+        this.fired = new LongAdder();
+        this.won = new LongAdder();
+    }
+
+    /**
+     * Creates the hedging action with a fixed delay.
+     *
+     * @param body    the idempotent action to be hedged
+     * @param factory the task factory executing the attempts
+     * @param delay   the delay after which the second attempt is started
+     * @param unit    the unit of the delay
+     */
+    public HedgedAction(Action<T, R> body, TaskFactory factory, long delay, TimeUnit unit) {
+        this(body, factory, delay, unit, -1);
+    }
+
+    /**
+     * Creates the hedging action with a delay equal to the observed percentile of the attempt latency.
+     *
+     * @param body         the idempotent action to be hedged
+     * @param factory      the task factory executing the attempts
+     * @param percentile   the percentile of the latency, from 0 to 100
+     * @param initialDelay the delay used until enough latencies are observed
+     * @param unit         the unit of the initial delay
+     */
+    public HedgedAction(Action<T, R> body, TaskFactory factory, double percentile, long initialDelay, TimeUnit unit) {
+        this(body, factory, initialDelay, unit, percentile);
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+    }
+
+    /**
+     * @return the current hedging delay in nanoseconds
+     */
+    public long getDelay() {
+        if (percentile < 0 || latency.getCount() < MIN_SAMPLES) {
+            return delay;
+        }
+        return latency.getPercentile(percentile);
+    }
+
+    /**
+     * @return the number of started second attempts
+     */
+    public long getFired() {
+        return fired.sum();
+    }
+
+    /**
+     * @return the number of executions won by the second attempt
+     */
+    public long getWon() {
+        return won.sum();
+    }
+
+    /**
+     * @return the latency histogram of the finished attempts in nanoseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * The attempts are executed by the tasks of the task factory.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public R execute(T t) throws Throwable {
+        CompletableFuture<R> future = async(t);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+    }
+
+    /**
+     * Returns completable future contains this action executing.
+     * The attempts are always executed by the task factory of the action.
+     *
+     * @param t        the action argument
+     * @param executor ignored
+     * @return {@link CompletableFuture} returns action result
+     */
+    @Override
+    public CompletableFuture<R> async(T t, Executor executor) {
+        return async(t);
+    }
+
+    @Override
+    public CompletableFuture<R> async(T t) {
+        Call call = new Call(t);
+        call.start(false);
+        if (!call.future.isDone()) {
+            ScheduledFuture<?> timer = Delayer.schedule(call::hedge, getDelay(), TimeUnit.NANOSECONDS);
+            call.future.whenComplete((value, throwable) -> timer.cancel(false));
+        }
+        return call.future;
+    }
+
+    private final class Call {
+        private final T input;
+        private final CompletableFuture<R> future;
+        private final AtomicInteger running;
+        private volatile Attempt primary;
+        private volatile Attempt hedge;
+
+        private Call(T input) {
+            this.input = input;
+            this.future = new CompletableFuture<>();
+            this.running = new AtomicInteger();
+            // Cancel the attempts still in progress, whoever completed the future
+            future.whenComplete((value, throwable) -> {
+                cancel(primary);
+                cancel(hedge);
+            });
+        }
+
+        private void cancel(Attempt attempt) {
+            if (attempt != null) {
+                attempt.cancel();
+            }
+        }
+
+        private void hedge() {
+            if (future.isDone()) {
+                return;
+            }
+            fired.increment();
+            start(true);
+        }
+
+        private void start(boolean hedged) {
+            Attempt attempt = new Attempt();
+            if (hedged) {
+                hedge = attempt;
+            } else {
+                primary = attempt;
+            }
+            running.incrementAndGet();
+            try {
+                attempt.task = factory.createTask(() -> {
+                    run(attempt, hedged);
+                    return null;
+                }).start();
+            } catch (Throwable e) {
+                attempt.finished = true;
+                fail(e);
+                return;
+            }
+            if (future.isDone()) {
+                attempt.cancel();
+            }
+        }
+
+        private void run(Attempt attempt, boolean hedged) {
+            if (future.isDone()) {
+                attempt.finished = true;
+                return;
+            }
+            long start = System.nanoTime();
+            R value;
+            try {
+                value = body.execute(input);
+            } catch (Throwable e) {
+                attempt.finished = true;
+                fail(e);
+                return;
+            }
+            attempt.finished = true;
+            latency.record(System.nanoTime() - start);
+            if (future.complete(value) && hedged) {
+                won.increment();
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            if (running.decrementAndGet() == 0) {
+                future.completeExceptionally(throwable);
+            }
+        }
+    }
+
+    private static final class Attempt {
+        private volatile Future<?> task;
+        private volatile boolean finished;
+
+        private void cancel() {
+            Future<?> task = this.task;
+            if (!finished && task != null) {
+                task.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.romanqed.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of non-negative long values with logarithmic buckets.</p>
+ * <p>Each power of two is divided into 8 linear sub-buckets, so the relative error of the reported
+ * percentiles does not exceed 12.5%. The bucket counters are striped and created on first use,
+ * so recording scales across cores and unused ranges cost nothing.</p>
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicReferenceArray<LongAdder> buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public Histogram() {
+        this.buckets = new AtomicReferenceArray<>(BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Long::max, 0);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_COUNT - 1);
+        return (magnitude - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long highest(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Records the value.
+     *
+     * @param value the value to be recorded, negative values are recorded as zero
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records the value several times.
+     *
+     * @param value the value to be recorded, negative values are recorded as zero
+     * @param times the number of times to record the value
+     */
+    public void record(long value, long times) {
+        if (times <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        int index = index(value);
+        LongAdder bucket = buckets.get(index);
+        if (bucket == null) {
+            buckets.compareAndSet(index, null, new LongAdder());
+            bucket = buckets.get(index);
+        }
+        bucket.add(times);
+        count.add(times);
+        sum.add(value * times);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the largest recorded value, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the arithmetic mean of the recorded values, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the value below which the specified percentage of the recorded values falls.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the highest value equivalent to the bucket containing the percentile, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long count = this.count.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            LongAdder bucket = buckets.get(i);
+            if (bucket == null) {
+                continue;
+            }
+            seen += bucket.sum();
+            if (seen >= target) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Resets the histogram. Values recorded concurrently with the reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets.set(i, null);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
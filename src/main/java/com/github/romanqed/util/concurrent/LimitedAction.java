@@ -0,0 +1,85 @@
+package com.github.romanqed.util.concurrent;
+
+import com.github.romanqed.util.Action;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * <p>An action limiting the number of its in-flight executions by a {@link ConcurrencyLimiter}.</p>
+ * <p>Asynchronous executions wait for a permit without blocking the calling thread and release it
+ * when the returned future completes. A limiter can be shared by several actions
+ * calling the same dependency.</p>
+ *
+ * @param <T> the type of the input to the action
+ * @param <R> the type of the result of the action
+ */
+public class LimitedAction<T, R> implements Action<T, R> {
+    private final Action<T, R> body;
+    private final ConcurrencyLimiter limiter;
+
+    public LimitedAction(Action<T, R> body, ConcurrencyLimiter limiter) {
+        this.body = Objects.requireNonNull(body);
+        this.limiter = Objects.requireNonNull(limiter);
+    }
+
+    public LimitedAction(Action<T, R> body) {
+        this(body, new ConcurrencyLimiter());
+    }
+
+    public Action<T, R> getBody() {
+        return body;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Asynchronous executions do not block while waiting for a permit.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public R execute(T t) throws Throwable {
+        long start = limiter.acquire();
+        boolean success = false;
+        try {
+            R ret = body.execute(t);
+            success = true;
+            return ret;
+        } finally {
+            limiter.release(start, success);
+        }
+    }
+
+    @Override
+    public CompletableFuture<R> async(T t) {
+        return limit(() -> body.async(t));
+    }
+
+    @Override
+    public CompletableFuture<R> async(T t, Executor executor) {
+        return limit(() -> body.async(t, executor));
+    }
+
+    private CompletableFuture<R> limit(Supplier<CompletableFuture<R>> supplier) {
+        return limiter.acquireAsync().thenCompose(start -> {
+            CompletableFuture<R> ret;
+            try {
+                ret = supplier.get();
+            } catch (Throwable e) {
+                limiter.release(start, false);
+                throw e;
+            }
+            return ret.whenComplete((value, throwable) -> limiter.release(start, throwable == null));
+        });
+    }
+}
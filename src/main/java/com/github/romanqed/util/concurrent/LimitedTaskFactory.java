@@ -0,0 +1,229 @@
+package com.github.romanqed.util.concurrent;
+
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>A task factory limiting the number of its tasks executing at once by a {@link ConcurrencyLimiter}.</p>
+ * <p>A started task acquires the permit before it is submitted to the executor of the wrapped factory,
+ * so the waiting tasks do not hold the threads of the executor. A rejected task fails with
+ * a {@link RejectedExecutionException}, which is also passed to the failure consumer.</p>
+ * <p>A task called directly acquires the permit in the calling thread.</p>
+ */
+public class LimitedTaskFactory implements TaskFactory {
+    private final TaskFactory factory;
+    private final ConcurrencyLimiter limiter;
+
+    public LimitedTaskFactory(TaskFactory factory, ConcurrencyLimiter limiter) {
+        this.factory = Objects.requireNonNull(factory);
+        this.limiter = Objects.requireNonNull(limiter);
+    }
+
+    public LimitedTaskFactory(TaskFactory factory) {
+        this(factory, new ConcurrencyLimiter());
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    private <T> T run(Callable<T> action, long start) throws Exception {
+        boolean success = false;
+        try {
+            T ret = action.call();
+            success = true;
+            return ret;
+        } finally {
+            limiter.release(start, success);
+        }
+    }
+
+    @Override
+    public <T> Task<T> createTask(Callable<T> action) {
+        Objects.requireNonNull(action);
+        return new LimitedTask<>(action);
+    }
+
+    @Override
+    public ExecutorService getExecutor() {
+        return factory.getExecutor();
+    }
+
+    @Override
+    public boolean hasExecutor() {
+        return factory.hasExecutor();
+    }
+
+    @Override
+    public void close() {
+        factory.close();
+    }
+
+    private final class LimitedTask<T> implements Task<T> {
+        private final Callable<T> action;
+
+        private LimitedTask(Callable<T> action) {
+            this.action = action;
+        }
+
+        @Override
+        public T call() throws Exception {
+            return run(action, limiter.acquire());
+        }
+
+        @Override
+        public Future<T> start(Consumer<T> success, Consumer<Throwable> failure) {
+            if (getExecutor() == null) {
+                throw new IllegalStateException("The task has no executor");
+            }
+            Admission<T> ret = new Admission<>();
+            limiter.acquireAsync().whenComplete((start, throwable) -> {
+                if (throwable == null) {
+                    ret.admit(action, start, success, failure);
+                    return;
+                }
+                Throwable cause = unwrap(throwable);
+                if (ret.task.completeExceptionally(cause) && failure != null) {
+                    failure.accept(cause);
+                }
+            });
+            return ret;
+        }
+
+        @Override
+        public CompletableFuture<T> async() {
+            ExecutorService executor = getExecutor();
+            return limiter.acquireAsync().thenCompose(start -> {
+                Supplier<T> body = () -> {
+                    try {
+                        return run(action, start);
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new RuntimeException(e);
+                    }
+                };
+                try {
+                    if (executor == null) {
+                        return CompletableFuture.supplyAsync(body);
+                    }
+                    return CompletableFuture.supplyAsync(body, executor);
+                } catch (Throwable e) {
+                    limiter.release(start, false);
+                    throw e;
+                }
+            });
+        }
+
+        @Override
+        public ExecutorService getExecutor() {
+            return factory.getExecutor();
+        }
+    }
+
+    /**
+     * The future of a started task, which is bound to the future of the wrapped task once the permit is acquired.
+     */
+    private final class Admission<T> implements Future<T> {
+        private final CompletableFuture<Future<T>> task;
+        // Either the task takes the permit to execute the action, or the cancellation takes it to release it
+        private final AtomicBoolean claimed;
+        private volatile long start;
+        private volatile boolean interrupt;
+
+        private Admission() {
+            this.task = new CompletableFuture<>();
+            this.claimed = new AtomicBoolean();
+        }
+
+        private void abandon() {
+            if (claimed.compareAndSet(false, true)) {
+                limiter.release(start, false);
+            }
+        }
+
+        private T execute(Callable<T> action) throws Exception {
+            if (!claimed.compareAndSet(false, true)) {
+                throw new CancellationException();
+            }
+            return run(action, start);
+        }
+
+        private void admit(Callable<T> action, long start, Consumer<T> success, Consumer<Throwable> failure) {
+            this.start = start;
+            if (task.isDone()) {
+                abandon();
+                return;
+            }
+            Future<T> future;
+            try {
+                future = factory.createTask(() -> execute(action)).start(success, failure);
+            } catch (Throwable e) {
+                abandon();
+                if (task.completeExceptionally(e) && failure != null) {
+                    failure.accept(e);
+                }
+                return;
+            }
+            if (!task.complete(future)) {
+                future.cancel(interrupt);
+                abandon();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            interrupt = mayInterruptIfRunning;
+            // Not admitted yet, the permit is released as soon as it is acquired
+            if (task.cancel(false)) {
+                return true;
+            }
+            if (task.isCompletedExceptionally()) {
+                return false;
+            }
+            boolean ret = task.join().cancel(mayInterruptIfRunning);
+            if (ret) {
+                abandon();
+            }
+            return ret;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            if (!task.isDone()) {
+                return false;
+            }
+            return task.isCancelled() || (!task.isCompletedExceptionally() && task.join().isCancelled());
+        }
+
+        @Override
+        public boolean isDone() {
+            if (!task.isDone()) {
+                return false;
+            }
+            return task.isCompletedExceptionally() || task.join().isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return task.get().get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            Future<T> future = task.get(timeout, unit);
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+}
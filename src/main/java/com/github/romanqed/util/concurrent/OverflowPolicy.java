@@ -0,0 +1,21 @@
+package com.github.romanqed.util.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The behaviour of a bounded buffer when there is no free space for a new value.
+ */
+public enum OverflowPolicy {
+    /**
+     * The caller waits until there is free space.
+     */
+    BLOCK,
+    /**
+     * The new value is silently discarded.
+     */
+    DROP,
+    /**
+     * The caller receives a {@link RejectedExecutionException}.
+     */
+    FAIL
+}
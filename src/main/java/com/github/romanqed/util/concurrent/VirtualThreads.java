@@ -0,0 +1,91 @@
+package com.github.romanqed.util.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A factory of executors for blocking tasks, which use virtual threads when running on Java 21 or newer.</p>
+ * <p>On older versions, a cached pool of daemon platform threads is used instead, so blocking tasks
+ * do not occupy the common fork-join pool.</p>
+ */
+public final class VirtualThreads {
+    private static final MethodHandle FACTORY = findFactory();
+    private static final boolean SUPPORTED = FACTORY != null && check();
+
+    private static MethodHandle findFactory() {
+        try {
+            return MethodHandles.publicLookup().findStatic(
+                    Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class)
+            );
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    // Virtual threads may be present as a preview feature, which is disabled
+    private static boolean check() {
+        try {
+            ((ExecutorService) FACTORY.invoke()).shutdown();
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if virtual threads are available, false otherwise
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread for each task,
+     * or a cached pool of daemon threads, if virtual threads are not available.
+     *
+     * @return {@link ExecutorService} instance
+     */
+    public static ExecutorService newExecutor() {
+        if (SUPPORTED) {
+            try {
+                return (ExecutorService) FACTORY.invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to create virtual thread executor", e);
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread ret = new Thread(runnable, "java-utils-blocking-" + counter.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+
+    /**
+     * Creates a task factory bound to a new executor created by {@link #newExecutor()}.
+     *
+     * @return {@link TaskFactory} instance
+     */
+    public static TaskFactory newTaskFactory() {
+        return new ThreadTaskFactory(newExecutor());
+    }
+
+    /**
+     * Returns the shared executor created by {@link #newExecutor()}, which should not be shut down.
+     *
+     * @return {@link ExecutorService} instance
+     */
+    public static ExecutorService executor() {
+        return Holder.EXECUTOR;
+    }
+
+    private static final class Holder {
+        private static final ExecutorService EXECUTOR = newExecutor();
+    }
+}
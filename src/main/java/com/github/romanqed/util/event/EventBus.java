@@ -0,0 +1,282 @@
+package com.github.romanqed.util.event;
+
+import com.github.romanqed.util.Handler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * <p>An in-process event bus delivering events to the handlers subscribed to topics or event classes.</p>
+ * <p>An event published without a topic is delivered to the handlers subscribed to its class,
+ * its superclasses and interfaces. The resolved handlers of each event class are cached until
+ * the class subscriptions change. The caches are attached to the event classes,
+ * so they do not prevent the classes and their class loaders from being unloaded.</p>
+ * <p>Publishing reads copy-on-write arrays of subscriptions and does not take locks,
+ * so subscribing and unsubscribing are relatively expensive.</p>
+ * <p>The exceptions thrown by the handlers do not affect the other handlers
+ * and are passed to the error handler of the bus.</p>
+ */
+public class EventBus {
+    private static final Subscription[] EMPTY = new Subscription[0];
+    private static final ClassValue<Class<?>[]> HIERARCHIES = new ClassValue<Class<?>[]>() {
+        @Override
+        protected Class<?>[] computeValue(Class<?> type) {
+            return hierarchy(type);
+        }
+    };
+
+    private final Object lock;
+    private final Handler<? super Throwable> onError;
+    private final ConcurrentMap<Class<?>, Subscription[]> classes;
+    private final ConcurrentMap<String, Subscription[]> topics;
+    private final ClassValue<AtomicReference<Resolved>> resolved;
+    // Incremented by each change of the class subscriptions, which invalidates the resolved handlers
+    private volatile long version;
+
+    /**
+     * Creates the event bus.
+     *
+     * @param onError the handler receiving the exceptions thrown by the subscribed handlers
+     */
+    public EventBus(Handler<? super Throwable> onError) {
+        this.lock = new Object();
+        this.onError = Objects.requireNonNull(onError);
+        this.classes = new ConcurrentHashMap<>();
+        this.topics = new ConcurrentHashMap<>();
+        this.resolved = new ClassValue<AtomicReference<Resolved>>() {
+            @Override
+            protected AtomicReference<Resolved> computeValue(Class<?> type) {
+                return new AtomicReference<>();
+            }
+        };
+    }
+
+    /**
+     * Creates the event bus, which ignores the exceptions thrown by the subscribed handlers.
+     * They are still counted by {@link Subscription#getFailed()}.
+     */
+    public EventBus() {
+        this(e -> {
+        });
+    }
+
+    private static Class<?>[] hierarchy(Class<?> type) {
+        Set<Class<?>> ret = new LinkedHashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(type);
+        while (!queue.isEmpty()) {
+            Class<?> current = queue.poll();
+            if (!ret.add(current)) {
+                continue;
+            }
+            if (current.getSuperclass() != null) {
+                queue.add(current.getSuperclass());
+            }
+            Collections.addAll(queue, current.getInterfaces());
+        }
+        return ret.toArray(new Class<?>[0]);
+    }
+
+    private static <K> void add(ConcurrentMap<K, Subscription[]> map, K key, Subscription subscription) {
+        Subscription[] found = map.getOrDefault(key, EMPTY);
+        Subscription[] updated = Arrays.copyOf(found, found.length + 1);
+        updated[found.length] = subscription;
+        map.put(key, updated);
+    }
+
+    private static <K> void remove(ConcurrentMap<K, Subscription[]> map, K key, Subscription subscription) {
+        Subscription[] found = map.get(key);
+        if (found == null) {
+            return;
+        }
+        List<Subscription> updated = new ArrayList<>(Arrays.asList(found));
+        updated.remove(subscription);
+        if (updated.isEmpty()) {
+            map.remove(key);
+        } else {
+            map.put(key, updated.toArray(EMPTY));
+        }
+    }
+
+    private static int deliver(Subscription[] subscriptions, Object event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.deliver(event);
+        }
+        return subscriptions.length;
+    }
+
+    void fail(Throwable e) {
+        try {
+            onError.handle(e);
+        } catch (Throwable ignored) {
+            // The error handler must not break the delivery to the other handlers
+        }
+    }
+
+    void remove(Subscription subscription) {
+        synchronized (lock) {
+            Object target = subscription.getTarget();
+            if (target instanceof Class) {
+                remove(classes, (Class<?>) target, subscription);
+                ++version;
+            } else {
+                remove(topics, (String) target, subscription);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Subscription register(Object target, Handler<?> handler, Executor executor, Function<?, ?> key) {
+        Objects.requireNonNull(target);
+        Subscription ret = new Subscription(this, target, (Handler<Object>) handler, executor, (Function<Object, ?>) key);
+        synchronized (lock) {
+            if (target instanceof Class) {
+                add(classes, (Class<?>) target, ret);
+                ++version;
+            } else {
+                add(topics, (String) target, ret);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Subscribes the handler to the events of the class and its subclasses.
+     * The events are delivered synchronously by the publishing thread.
+     *
+     * @param type    the class of the events
+     * @param handler the handler of the events
+     * @param <E>     the type of the events
+     * @return {@link Subscription} instance
+     */
+    public <E> Subscription subscribe(Class<E> type, Handler<? super E> handler) {
+        return register(type, handler, null, null);
+    }
+
+    /**
+     * Subscribes the handler to the events of the class and its subclasses.
+     * The events are delivered by the executor in an arbitrary order.
+     *
+     * @param type     the class of the events
+     * @param handler  the handler of the events
+     * @param executor the executor delivering the events
+     * @param <E>      the type of the events
+     * @return {@link Subscription} instance
+     */
+    public <E> Subscription subscribe(Class<E> type, Handler<? super E> handler, Executor executor) {
+        return register(type, handler, Objects.requireNonNull(executor), null);
+    }
+
+    /**
+     * Subscribes the handler to the events of the class and its subclasses.
+     * The events are delivered by the executor, and the events with equal keys
+     * are delivered one at a time in the order of publishing.
+     *
+     * @param type     the class of the events
+     * @param handler  the handler of the events
+     * @param executor the executor delivering the events
+     * @param key      the function extracting the key from an event
+     * @param <E>      the type of the events
+     * @return {@link Subscription} instance
+     */
+    public <E> Subscription subscribe(Class<E> type,
+                                      Handler<? super E> handler,
+                                      Executor executor,
+                                      Function<? super E, ?> key) {
+        return register(type, handler, Objects.requireNonNull(executor), Objects.requireNonNull(key));
+    }
+
+    /**
+     * Subscribes the handler to the events of the topic.
+     * The events are delivered synchronously by the publishing thread.
+     *
+     * @param topic   the name of the topic
+     * @param handler the handler of the events
+     * @return {@link Subscription} instance
+     */
+    public Subscription subscribe(String topic, Handler<Object> handler) {
+        return register(topic, handler, null, null);
+    }
+
+    /**
+     * Subscribes the handler to the events of the topic.
+     * The events are delivered by the executor in an arbitrary order.
+     *
+     * @param topic    the name of the topic
+     * @param handler  the handler of the events
+     * @param executor the executor delivering the events
+     * @return {@link Subscription} instance
+     */
+    public Subscription subscribe(String topic, Handler<Object> handler, Executor executor) {
+        return register(topic, handler, Objects.requireNonNull(executor), null);
+    }
+
+    /**
+     * Subscribes the handler to the events of the topic.
+     * The events are delivered by the executor, and the events with equal keys
+     * are delivered one at a time in the order of publishing.
+     *
+     * @param topic    the name of the topic
+     * @param handler  the handler of the events
+     * @param executor the executor delivering the events
+     * @param key      the function extracting the key from an event
+     * @return {@link Subscription} instance
+     */
+    public Subscription subscribe(String topic, Handler<Object> handler, Executor executor, Function<Object, ?> key) {
+        return register(topic, handler, Objects.requireNonNull(executor), Objects.requireNonNull(key));
+    }
+
+    private Subscription[] resolve(Class<?> type) {
+        AtomicReference<Resolved> cache = resolved.get(type);
+        Resolved found = cache.get();
+        // The version is read before the subscriptions, so the handlers changed meanwhile are resolved again
+        long version = this.version;
+        if (found != null && found.version == version) {
+            return found.subscriptions;
+        }
+        List<Subscription> ret = new ArrayList<>();
+        for (Class<?> clazz : HIERARCHIES.get(type)) {
+            Collections.addAll(ret, classes.getOrDefault(clazz, EMPTY));
+        }
+        Subscription[] subscriptions = ret.toArray(EMPTY);
+        cache.compareAndSet(found, new Resolved(version, subscriptions));
+        return subscriptions;
+    }
+
+    /**
+     * Publishes the event to the handlers subscribed to its class, superclasses and interfaces.
+     *
+     * @param event the event to be published
+     * @return the number of handlers the event is delivered to
+     */
+    public int publish(Object event) {
+        Objects.requireNonNull(event);
+        return deliver(resolve(event.getClass()), event);
+    }
+
+    /**
+     * Publishes the event to the handlers subscribed to the topic.
+     *
+     * @param topic the name of the topic
+     * @param event the event to be published
+     * @return the number of handlers the event is delivered to
+     */
+    public int publish(String topic, Object event) {
+        Objects.requireNonNull(event);
+        return deliver(topics.getOrDefault(Objects.requireNonNull(topic), EMPTY), event);
+    }
+
+    private static final class Resolved {
+        private final long version;
+        private final Subscription[] subscriptions;
+
+        private Resolved(long version, Subscription[] subscriptions) {
+            this.version = version;
+            this.subscriptions = subscriptions;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.github.romanqed.util.event;
+
+import com.github.romanqed.util.Handler;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * <p>A handler subscribed to an {@link EventBus}, with its delivery mode and metrics.</p>
+ * <p>The events are delivered either synchronously by the publishing thread, or by the executor
+ * in an arbitrary order, or by the executor in the order of publishing for the events with the same key.</p>
+ * <p>If an event cannot be delivered, because the key function or the executor fails,
+ * it is counted as failed and the exception is passed to the error handler of the bus.</p>
+ */
+public final class Subscription {
+    // The number of serial lanes of an ordered subscription, must be a power of two
+    private static final int LANES = 32;
+
+    private final EventBus bus;
+    private final Object target;
+    private final Handler<Object> handler;
+    private final Executor executor;
+    private final Function<Object, ?> key;
+    private final Lane[] lanes;
+    private final AtomicInteger depth;
+    private final LongAdder delivered;
+    private final LongAdder failed;
+    private final AtomicBoolean active;
+
+    Subscription(EventBus bus, Object target, Handler<Object> handler, Executor executor, Function<Object, ?> key) {
+        this.bus = bus;
+        this.target = target;
+        this.handler = Objects.requireNonNull(handler);
+        this.executor = executor;
+        this.key = key;
+        if (key == null) {
+            this.lanes = null;
+        } else {
+            this.lanes = new Lane[LANES];
+            for (int i = 0; i < LANES; ++i) {
+                this.lanes[i] = new Lane();
+            }
+        }
+        this.depth = new AtomicInteger();
+        this.delivered = new LongAdder();
+        this.failed = new LongAdder();
+        this.active = new AtomicBoolean(true);
+    }
+
+    private static int spread(Object key) {
+        int hash = Objects.hashCode(key);
+        return (hash ^ (hash >>> 16)) & (LANES - 1);
+    }
+
+    Object getTarget() {
+        return target;
+    }
+
+    // Never throws, so a failed delivery does not affect the other subscriptions
+    void deliver(Object event) {
+        if (executor == null) {
+            invoke(event);
+            return;
+        }
+        Lane lane = null;
+        if (lanes != null) {
+            try {
+                lane = lanes[spread(key.apply(event))];
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+        }
+        depth.incrementAndGet();
+        Delivery delivery = new Delivery(event);
+        if (lane != null) {
+            lane.submit(delivery);
+            return;
+        }
+        try {
+            executor.execute(delivery);
+        } catch (Throwable e) {
+            delivery.reject(e);
+        }
+    }
+
+    private void invoke(Object event) {
+        if (!active.get()) {
+            return;
+        }
+        try {
+            handler.handle(event);
+            delivered.increment();
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        failed.increment();
+        bus.fail(e);
+    }
+
+    /**
+     * Unsubscribes the handler. The events that are not delivered yet are discarded.
+     */
+    public void cancel() {
+        if (active.compareAndSet(true, false)) {
+            bus.remove(this);
+        }
+    }
+
+    /**
+     * @return true if the handler is subscribed, false otherwise
+     */
+    public boolean isActive() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of events waiting for the delivery
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * @return the number of events successfully handled
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * @return the number of events the handler failed to handle
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    private final class Delivery implements Runnable {
+        private final Object event;
+
+        private Delivery(Object event) {
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            try {
+                invoke(event);
+            } finally {
+                depth.decrementAndGet();
+            }
+        }
+
+        private void reject(Throwable e) {
+            depth.decrementAndGet();
+            fail(e);
+        }
+    }
+
+    // Executes the submitted deliveries one at a time, in the order of submission
+    private final class Lane implements Runnable {
+        private final Queue<Delivery> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private void submit(Delivery delivery) {
+            tasks.offer(delivery);
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (Throwable e) {
+                // The lane is owned by this thread, so it rejects the deliveries instead of running them,
+                // otherwise the following submissions would never schedule it again
+                do {
+                    tasks.poll().reject(e);
+                } while (pending.decrementAndGet() != 0);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                tasks.poll().run();
+            } while (pending.decrementAndGet() != 0);
+        }
+    }
+}
@@ -6,15 +6,14 @@ import com.github.romanqed.util.chain.AbstractLink;
 import java.util.Objects;
 
 class ActionLink<T> extends AbstractLink<ActionLink<T>> {
-    private final Action<Object, Object> body;
     private final T key;
+    private volatile Action<Object, Object> body;
+    private ActionLink<T> parent;
 
-    @SuppressWarnings("unchecked")
     public ActionLink(T key, Action<?, ?> body) {
         Objects.requireNonNull(key);
-        Objects.requireNonNull(body);
         this.key = key;
-        this.body = (Action<Object, Object>) body;
+        setBody(body);
     }
 
     public T getKey() {
@@ -25,6 +24,19 @@ class ActionLink<T> extends AbstractLink<ActionLink<T>> {
         return body;
     }
 
+    @SuppressWarnings("unchecked")
+    public void setBody(Action<?, ?> body) {
+        this.body = (Action<Object, Object>) Objects.requireNonNull(body);
+    }
+
+    public ActionLink<T> parent() {
+        return parent;
+    }
+
+    public void setParent(ActionLink<T> parent) {
+        this.parent = parent;
+    }
+
     @Override
     public String toString() {
         return "this(" + key + ") -> " + (tail() == null ? null : tail().key);
@@ -6,52 +6,128 @@ import com.github.romanqed.util.Node;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+/**
+ * <p>A pipeline that stores its actions in an array.</p>
+ * <p>Each mutation publishes a new immutable snapshot of the actions, so execution never locks
+ * and is not affected by concurrent modifications.</p>
+ * <p>A transaction is applied to a copy of the current snapshot, which is published as a whole.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
 public class ArrayPipeline<T> implements Pipeline<T> {
     private final Object lock;
-    private final List<Node<T, Action<Object, Object>>> body;
     private final Map<T, Integer> indexes;
+    private volatile Node<T, Action<Object, Object>>[] body;
+    private volatile long version;
 
     public ArrayPipeline() {
         lock = new Object();
-        body = new ArrayList<>();
         indexes = new ConcurrentHashMap<>();
+        body = allocate(0);
+    }
+
+    ArrayPipeline(Node<T, Action<Object, Object>>[] body) {
+        this();
+        this.body = body;
+        for (int i = 0; i < body.length; ++i) {
+            indexes.put(body[i].getKey(), i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T, Action<Object, Object>>[] allocate(int length) {
+        return (Node<T, Action<Object, Object>>[]) new Node<?, ?>[length];
     }
 
     @Override
     public Object execute(Object o) throws Throwable {
+        Node<T, Action<Object, Object>>[] body = this.body;
         Object data = o;
-        for (Node<T, Action<Object, Object>> node : body) {
-            try {
+        try {
+            for (Node<T, Action<Object, Object>> node : body) {
                 data = node.getValue().execute(data);
-            } catch (InterruptException e) {
-                return e.getBody();
             }
+        } catch (InterruptException e) {
+            return e.getBody();
         }
         return data;
     }
 
     @Override
     public CompletableFuture<Object> async(Object o) {
-        Iterator<Node<T, Action<Object, Object>>> iterator = body.iterator();
-        if (!iterator.hasNext()) {
+        Node<T, Action<Object, Object>>[] body = this.body;
+        if (body.length == 0) {
             return CompletableFuture.completedFuture(o);
         }
-        CompletableFuture<Object> ret = iterator.next().getValue().async(o);
-        while (iterator.hasNext()) {
-            ret = ret.thenApplyAsync(Util.packToFunction(iterator.next().getValue()));
+        CompletableFuture<Object> ret = body[0].getValue().async(o).thenCompose(Util::toStage);
+        for (int i = 1; i < body.length; ++i) {
+            ret = Util.thenCompose(ret, body[i].getValue());
         }
         return ret.exceptionally(Util.EXCEPTION_HANDLER);
     }
 
     @Override
-    public Action<?, ?> get(T key) {
+    public CompletableFuture<Object> async(Object o, Executor executor) {
+        Objects.requireNonNull(executor);
+        return AsyncRunner.run(body, o, executor);
+    }
+
+    @Override
+    public Object executeFrom(T key, Object o) throws Throwable {
         Objects.requireNonNull(key);
+        Node<T, Action<Object, Object>>[] body = this.body;
+        int index = indexOf(body, key);
+        if (index < 0) {
+            throw new NoSuchElementException();
+        }
+        return Util.executeFrom(body, index, o);
+    }
+
+    @Override
+    public CompletableFuture<Object> asyncFrom(T key, Object o, Executor executor) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(executor);
+        Node<T, Action<Object, Object>>[] body = this.body;
+        int index = indexOf(body, key);
+        if (index < 0) {
+            throw new NoSuchElementException();
+        }
+        return AsyncRunner.run(body, index, o, executor, null, true);
+    }
+
+    Node<T, Action<Object, Object>>[] snapshot() {
+        return body;
+    }
+
+    private int indexOf(Node<T, Action<Object, Object>>[] body, T key) {
         Integer index = indexes.get(key);
         if (index == null) {
+            return -1;
+        }
+        // The index map may be ahead of or behind the snapshot read by the caller
+        if (index < body.length && body[index].getKey().equals(key)) {
+            return index;
+        }
+        for (int i = 0; i < body.length; ++i) {
+            if (body[i].getKey().equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Action<?, ?> get(T key) {
+        Objects.requireNonNull(key);
+        Node<T, Action<Object, Object>>[] body = this.body;
+        int index = indexOf(body, key);
+        if (index < 0) {
             return null;
         }
-        return body.get(index).getValue();
+        return body[index].getValue();
     }
 
     @Override
@@ -60,15 +136,22 @@ public class ArrayPipeline<T> implements Pipeline<T> {
         Objects.requireNonNull(key);
         Objects.requireNonNull(value);
         synchronized (lock) {
+            Node<T, Action<Object, Object>>[] body = this.body;
             Integer index = indexes.get(key);
             Node<T, Action<Object, Object>> toAdd = new Node<>(key, (Action<Object, Object>) value);
             if (index != null) {
-                Action<?, ?> ret = body.get(index).getValue();
-                body.set(index, toAdd);
+                Node<T, Action<Object, Object>>[] updated = body.clone();
+                Action<?, ?> ret = updated[index].getValue();
+                updated[index] = toAdd;
+                this.body = updated;
+                ++version;
                 return ret;
             }
-            body.add(toAdd);
-            indexes.put(key, body.size() - 1);
+            Node<T, Action<Object, Object>>[] updated = Arrays.copyOf(body, body.length + 1);
+            updated[body.length] = toAdd;
+            indexes.put(key, body.length);
+            this.body = updated;
+            ++version;
             return null;
         }
     }
@@ -81,13 +164,19 @@ public class ArrayPipeline<T> implements Pipeline<T> {
             if (index == null) {
                 return null;
             }
+            Node<T, Action<Object, Object>>[] body = this.body;
+            Node<T, Action<Object, Object>>[] updated = allocate(body.length - 1);
+            System.arraycopy(body, 0, updated, 0, index);
+            System.arraycopy(body, index + 1, updated, index, body.length - index - 1);
             for (Map.Entry<T, Integer> entry : indexes.entrySet()) {
                 int entryValue = entry.getValue();
                 if (entryValue > index) {
                     entry.setValue(entryValue - 1);
                 }
             }
-            return body.remove((int) index).getValue();
+            this.body = updated;
+            ++version;
+            return body[index].getValue();
         }
     }
 
@@ -96,35 +185,40 @@ public class ArrayPipeline<T> implements Pipeline<T> {
         return indexes.containsKey(key);
     }
 
-    private void insert(T key, Node<T, Action<Object, Object>> value, boolean after) {
-        Integer index = indexes.get(key);
-        if (index == null) {
-            throw new NoSuchElementException();
-        }
-        int match = index;
-        if (after) {
-            index += 1;
-        } else {
-            match -= 1;
+    @SuppressWarnings("unchecked")
+    private void insert(int index, T key, Action<?, ?> value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        if (indexes.containsKey(key)) {
+            throw new IllegalStateException("Pipeline already contains key " + key + "!");
         }
+        Node<T, Action<Object, Object>>[] body = this.body;
+        Node<T, Action<Object, Object>>[] updated = allocate(body.length + 1);
+        System.arraycopy(body, 0, updated, 0, index);
+        updated[index] = new Node<>(key, (Action<Object, Object>) value);
+        System.arraycopy(body, index, updated, index + 1, body.length - index);
         for (Map.Entry<T, Integer> entry : indexes.entrySet()) {
             int entryValue = entry.getValue();
-            if (entryValue > match) {
+            if (entryValue >= index) {
                 entry.setValue(entryValue + 1);
             }
         }
-        indexes.put(value.getKey(), index);
-        body.add(index, value);
+        indexes.put(key, index);
+        this.body = updated;
+        ++version;
     }
 
-    @SuppressWarnings("unchecked")
     private void insert(T key, T insertKey, Action<?, ?> value, boolean after) {
-        if (indexes.containsKey(insertKey)) {
-            throw new IllegalStateException("Pipeline already contains key " + insertKey + "!");
-        }
+        Objects.requireNonNull(key);
         synchronized (lock) {
-            Node<T, Action<Object, Object>> toInsert = new Node<>(insertKey, (Action<Object, Object>) value);
-            insert(key, toInsert, after);
+            if (indexes.containsKey(insertKey)) {
+                throw new IllegalStateException("Pipeline already contains key " + insertKey + "!");
+            }
+            Integer index = indexes.get(key);
+            if (index == null) {
+                throw new NoSuchElementException();
+            }
+            insert(after ? index + 1 : index, insertKey, value);
         }
     }
 
@@ -140,43 +234,55 @@ public class ArrayPipeline<T> implements Pipeline<T> {
 
     @Override
     public void insertFirst(T key, Action<?, ?> value) {
-        if (isEmpty()) {
-            put(key, value);
-            return;
+        synchronized (lock) {
+            insert(0, key, value);
         }
-        T head = indexes.entrySet().stream().
-                filter(e -> e.getValue() == 0).
-                findFirst().
-                orElseThrow(IllegalStateException::new).
-                getKey();
-        insertBefore(head, key, value);
     }
 
     @Override
     public void clear() {
         synchronized (lock) {
-            body.clear();
+            body = allocate(0);
             indexes.clear();
+            ++version;
         }
     }
 
+    @Override
+    public void update(Consumer<? super Pipeline<T>> transaction) {
+        Objects.requireNonNull(transaction);
+        synchronized (lock) {
+            ArrayPipeline<T> copy = new ArrayPipeline<>(body);
+            transaction.accept(copy);
+            indexes.keySet().retainAll(copy.indexes.keySet());
+            indexes.putAll(copy.indexes);
+            body = copy.body;
+            ++version;
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     @Override
     public int size() {
-        return body.size();
+        return body.length;
     }
 
     @Override
     public boolean isEmpty() {
-        return body.isEmpty();
+        return body.length == 0;
     }
 
     @Override
     public String toString() {
-        return body.toString();
+        return Arrays.toString(body);
     }
 
     @Override
     public Iterator<Node<T, Action<Object, Object>>> iterator() {
-        return body.iterator();
+        return Arrays.asList(body).iterator();
     }
 }
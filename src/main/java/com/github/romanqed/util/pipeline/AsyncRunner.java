@@ -0,0 +1,228 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Node;
+import com.github.romanqed.util.concurrent.Delayer;
+
+import java.util.concurrent.*;
+
+/**
+ * A task executing pipeline actions back-to-back, which resubmits itself
+ * to the executor only when it reaches an {@link AsyncStage}. If the stage is bound to its own executor,
+ * the task is resubmitted only when the executor differs from the one executing the task,
+ * and the wrapped action is dispatched like an unbound one, using the bound executor.
+ * If an action returns a {@link CompletionStage}, the task is suspended until the stage is completed.
+ * Nested pipelines are started inline by the same task, other actions reporting {@link Action#isAsync()}
+ * are started by {@link Action#async(Object, Executor)}.
+ * If a deadline is set, the remaining actions are skipped once it has passed
+ * and the future is completed with a {@link TimeoutException}.
+ */
+final class AsyncRunner implements Runnable {
+    private final Node<?, Action<Object, Object>>[] body;
+    private final Executor executor;
+    private final Deadline deadline;
+    private final int start;
+    private final boolean tracked;
+    private final CompletableFuture<Object> future;
+    private Executor current;
+    private int index;
+    private Object data;
+    private Object input;
+
+    private AsyncRunner(Node<?, Action<Object, Object>>[] body,
+                        int start,
+                        Object data,
+                        Executor executor,
+                        Deadline deadline,
+                        boolean tracked) {
+        this.body = body;
+        this.executor = executor;
+        this.deadline = deadline;
+        this.start = start;
+        this.tracked = tracked;
+        this.future = new CompletableFuture<>();
+        this.index = start;
+        this.data = data;
+    }
+
+    static CompletableFuture<Object> run(Node<?, Action<Object, Object>>[] body, Object o, Executor executor) {
+        return run(body, 0, o, executor, null, false);
+    }
+
+    static CompletableFuture<Object> run(Node<?, Action<Object, Object>>[] body,
+                                         Object o,
+                                         Executor executor,
+                                         Deadline deadline) {
+        return run(body, 0, o, executor, deadline, false);
+    }
+
+    /**
+     * Starts the actions from the specified index.
+     * If tracked is set, the exceptions thrown by the actions are wrapped into {@link StageException}.
+     */
+    static CompletableFuture<Object> run(Node<?, Action<Object, Object>>[] body,
+                                         int start,
+                                         Object o,
+                                         Executor executor,
+                                         Deadline deadline,
+                                         boolean tracked) {
+        if (deadline != null && deadline.isExpired()) {
+            CompletableFuture<Object> ret = new CompletableFuture<>();
+            ret.completeExceptionally(timeout());
+            return ret;
+        }
+        if (start == body.length) {
+            return CompletableFuture.completedFuture(o);
+        }
+        AsyncRunner runner = new AsyncRunner(body, start, o, executor, deadline, tracked);
+        if (deadline != null) {
+            CompletableFuture<Object> future = runner.future;
+            ScheduledFuture<?> timer = Delayer.schedule(
+                    () -> future.completeExceptionally(timeout()),
+                    deadline.remaining(TimeUnit.NANOSECONDS),
+                    TimeUnit.NANOSECONDS
+            );
+            future.whenComplete((value, throwable) -> timer.cancel(false));
+        }
+        runner.submit(runner.target(body[start].getValue()));
+        return runner.future;
+    }
+
+    private static TimeoutException timeout() {
+        return new TimeoutException("Pipeline deadline has passed");
+    }
+
+    private CompletableFuture<Object> inline(Pipeline<?> pipeline, Object o, Executor executor) {
+        Node<?, Action<Object, Object>>[] body = Util.snapshot(pipeline);
+        if (body.length == 0) {
+            return CompletableFuture.completedFuture(o);
+        }
+        AsyncRunner runner = new AsyncRunner(body, 0, o, executor, deadline, false);
+        runner.current = current;
+        Action<Object, Object> first = body[0].getValue();
+        if (runner.isBoundary(first)) {
+            runner.submit(runner.target(first));
+        } else {
+            runner.run();
+        }
+        return runner.future;
+    }
+
+    private Executor target(Action<Object, Object> action) {
+        if (action instanceof AsyncStage) {
+            Executor ret = ((AsyncStage<Object, Object>) action).getExecutor();
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return executor;
+    }
+
+    private boolean isBoundary(Action<Object, Object> action) {
+        if (action instanceof AsyncStage && ((AsyncStage<Object, Object>) action).getExecutor() == null) {
+            return true;
+        }
+        return target(action) != current;
+    }
+
+    private void submit(Executor executor) {
+        current = executor;
+        try {
+            executor.execute(this);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void run() {
+        int from = index;
+        int i = from;
+        Object data = this.data;
+        Object input = data;
+        Deadline previous = deadline == null ? null : Deadline.enter(deadline);
+        try {
+            for (; i < body.length; ++i) {
+                // The future may already be cancelled, or completed by the deadline timer
+                if (future.isDone()) {
+                    return;
+                }
+                if (deadline != null && deadline.isExpired()) {
+                    future.completeExceptionally(timeout());
+                    return;
+                }
+                Action<Object, Object> action = body[i].getValue();
+                if (i != from && isBoundary(action)) {
+                    this.index = i;
+                    this.data = data;
+                    submit(target(action));
+                    return;
+                }
+                input = data;
+                // A bound stage is already running on its executor, which is passed on to the wrapped action
+                Executor local = target(action);
+                if (action instanceof AsyncStage) {
+                    action = ((AsyncStage<Object, Object>) action).getBody();
+                }
+                if (action instanceof Pipeline) {
+                    data = inline((Pipeline<?>) action, data, local);
+                } else if (action instanceof MeasuredAction && action.isAsync()) {
+                    data = ((MeasuredAction) action).async(data, local, deadline);
+                } else if (action.isAsync()) {
+                    data = action.async(data, local);
+                } else {
+                    data = action.execute(data);
+                }
+                if (data instanceof CompletableFuture && isCompletedNormally((CompletableFuture<?>) data)) {
+                    data = ((CompletableFuture<?>) data).join();
+                } else if (data instanceof CompletionStage) {
+                    this.index = i + 1;
+                    this.input = input;
+                    ((CompletionStage<?>) data).whenComplete(this::resume);
+                    return;
+                }
+            }
+        } catch (InterruptException e) {
+            future.complete(e.getBody());
+            return;
+        } catch (Throwable e) {
+            fail(i, input, e);
+            return;
+        } finally {
+            if (deadline != null) {
+                Deadline.exit(previous);
+            }
+        }
+        future.complete(data);
+    }
+
+    private void fail(int index, Object input, Throwable throwable) {
+        if (tracked && index < body.length && !(throwable instanceof Error)) {
+            future.completeExceptionally(Util.stageException(body, start, index, input, throwable));
+        } else {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    private static boolean isCompletedNormally(CompletableFuture<?> future) {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    private void resume(Object value, Throwable throwable) {
+        if (throwable != null) {
+            Throwable cause = Util.unwrap(throwable);
+            if (cause instanceof InterruptException) {
+                future.complete(((InterruptException) cause).getBody());
+            } else {
+                fail(index - 1, input, cause);
+            }
+            return;
+        }
+        if (index == body.length) {
+            future.complete(value);
+            return;
+        }
+        this.data = value;
+        submit(target(body[index].getValue()));
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.concurrent.TaskFactory;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>An action marking an asynchronous boundary of the pipeline.</p>
+ * <p>When the pipeline is executed by {@link Pipeline#async(Object, Executor)}, the wrapped action
+ * starts in a new task submitted to the executor, releasing the thread that executed the previous actions.</p>
+ * <p>The stage can be bound to its own executor, for example, a pool for blocking I/O.
+ * Then the wrapped action is executed by this executor, and the following actions return
+ * to the executor of the pipeline. A new task is submitted only if the executor changes.</p>
+ * <p>Synchronous execution is not affected by the boundary.</p>
+ *
+ * @param <T> the type of the input to the action
+ * @param <R> the type of the result of the action
+ */
+public class AsyncStage<T, R> implements Action<T, R> {
+    private final Action<T, R> body;
+    private final Executor executor;
+
+    public AsyncStage(Action<T, R> body, Executor executor) {
+        this.body = Objects.requireNonNull(body);
+        this.executor = executor;
+    }
+
+    public AsyncStage(Action<T, R> body, TaskFactory factory) {
+        this(body, factory.getExecutor());
+        if (!factory.hasExecutor()) {
+            throw new IllegalArgumentException("The task factory must have an executor");
+        }
+    }
+
+    public AsyncStage(Action<T, R> body) {
+        this(body, (Executor) null);
+    }
+
+    public Action<T, R> getBody() {
+        return body;
+    }
+
+    /**
+     * @return the executor bound to the stage, or null if the stage uses the executor of the pipeline
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return body.isAsync();
+    }
+
+    @Override
+    public R execute(T t) throws Throwable {
+        return body.execute(t);
+    }
+
+    @Override
+    public CompletableFuture<R> async(T t) {
+        if (executor == null) {
+            return body.async(t);
+        }
+        return body.async(t, executor);
+    }
+
+    /**
+     * Returns completable future contains this action executing by the bound executor,
+     * or by the specified one, if the stage is not bound.
+     *
+     * @param t        the action argument
+     * @param executor the executor to use if the stage is not bound
+     * @return {@link CompletableFuture} returns action result
+     */
+    @Override
+    public CompletableFuture<R> async(T t, Executor executor) {
+        return body.async(t, this.executor == null ? executor : this.executor);
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>An action capable of processing a whole batch of values in one call.</p>
+ * <p>When the pipeline is executed by {@link Pipeline#executeBatch(List)},
+ * such an action receives all the values that reached it at once.</p>
+ *
+ * @param <T> the type of the input to the action
+ * @param <R> the type of the result of the action
+ */
+public interface BatchAction<T, R> extends Action<T, R> {
+    /**
+     * <p>Executes this action for all values of the batch.</p>
+     * <p>The returned list must have the same size as the batch and keep the order of the values.
+     * To interrupt the processing of a single value, an {@link InterruptException} must be placed at its position.
+     * Throwing an {@link InterruptException} interrupts the processing of all values of the batch.</p>
+     *
+     * @param batch the values to be processed
+     * @return list of results
+     * @throws Throwable any exception that can be thrown in the action process
+     */
+    default List<Object> executeBatch(List<T> batch) throws Throwable {
+        List<Object> ret = new ArrayList<>(batch.size());
+        for (T value : batch) {
+            try {
+                ret.add(execute(value));
+            } catch (InterruptException e) {
+                ret.add(e);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes pipeline actions column-wise over a batch of values,
+ * dropping interrupted values out of the batch one by one.
+ */
+final class BatchRunner {
+    private final Object[] results;
+    private final int[] active;
+    private int count;
+
+    private BatchRunner(List<?> inputs) {
+        this.results = inputs.toArray();
+        this.active = new int[results.length];
+        for (int i = 0; i < active.length; ++i) {
+            active[i] = i;
+        }
+        this.count = results.length;
+    }
+
+    static List<Object> execute(Node<?, Action<Object, Object>>[] body, List<?> inputs) throws Throwable {
+        BatchRunner runner = new BatchRunner(inputs);
+        for (Node<?, Action<Object, Object>> node : body) {
+            if (runner.count == 0) {
+                break;
+            }
+            runner.apply(node.getValue());
+        }
+        return Arrays.asList(runner.results);
+    }
+
+    private List<Object> values() {
+        List<Object> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(results[active[i]]);
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(Action<Object, Object> action) throws Throwable {
+        if (action instanceof Pipeline) {
+            List<Object> values = ((Pipeline<?>) action).executeBatch(values());
+            for (int i = 0; i < count; ++i) {
+                results[active[i]] = values.get(i);
+            }
+            return;
+        }
+        if (action instanceof BatchAction) {
+            List<Object> values;
+            try {
+                values = ((BatchAction<Object, Object>) action).executeBatch(values());
+            } catch (InterruptException e) {
+                for (int i = 0; i < count; ++i) {
+                    results[active[i]] = e.getBody();
+                }
+                count = 0;
+                return;
+            }
+            if (values.size() != count) {
+                throw new IllegalStateException("Batch action returned " + values.size() +
+                        " results for " + count + " values");
+            }
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int index = active[i];
+                Object value = values.get(i);
+                if (value instanceof InterruptException) {
+                    results[index] = ((InterruptException) value).getBody();
+                } else {
+                    results[index] = value;
+                    active[kept++] = index;
+                }
+            }
+            count = kept;
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < count; ++i) {
+            int index = active[i];
+            try {
+                results[index] = action.execute(results[index]);
+                active[kept++] = index;
+            } catch (InterruptException e) {
+                results[index] = e.getBody();
+            }
+        }
+        count = kept;
+    }
+}
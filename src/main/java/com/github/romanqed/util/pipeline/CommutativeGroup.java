@@ -0,0 +1,445 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Node;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A group of commutative filter actions, which can be executed in any order.
+ * Each action either passes the value on or rejects it by throwing an {@link InterruptException}.</p>
+ * <p>The group measures the cost and the rejection rate of each action on a sample of executions,
+ * and periodically reorders the actions by their rank: the cost divided by the rejection rate.
+ * So cheap actions that reject most values are executed first.</p>
+ * <p>Actions that have not been measured yet are ranked as the average measured action.
+ * Reordering does not block the executions, and publishes the new order only if the actions
+ * were not changed meanwhile.</p>
+ * <p>Rejections are not handled by the group and interrupt the enclosing pipeline.</p>
+ * <p>If the group contains asynchronous actions, asynchronous execution does not block on them.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
+public class CommutativeGroup<T> implements Action<Object, Object>, Iterable<Node<T, Action<Object, Object>>> {
+    private static final double ALPHA = 0.5;
+    private static final double MIN_REJECTION = 1e-6;
+
+    private final Object lock;
+    private final int samplePeriod;
+    private final int reorderPeriod;
+    private final AtomicInteger samples;
+    private final AtomicBoolean reordering;
+    private final AtomicReference<Stage<T>[]> stages;
+
+    /**
+     * Creates the group.
+     *
+     * @param samplePeriod  one of how many executions is measured
+     * @param reorderPeriod after how many measured executions the actions are reordered
+     */
+    public CommutativeGroup(int samplePeriod, int reorderPeriod) {
+        if (samplePeriod < 1 || reorderPeriod < 1) {
+            throw new IllegalArgumentException("Periods must be positive");
+        }
+        this.lock = new Object();
+        this.samplePeriod = samplePeriod;
+        this.reorderPeriod = reorderPeriod;
+        this.samples = new AtomicInteger();
+        this.reordering = new AtomicBoolean();
+        this.stages = new AtomicReference<>(allocate(0));
+    }
+
+    public CommutativeGroup() {
+        this(16, 256);
+    }
+
+    /**
+     * Replaces the consecutive actions of the pipeline from the first key to the last key inclusive
+     * with a commutative group containing them. The change is published atomically.
+     *
+     * @param pipeline the pipeline containing the actions
+     * @param groupKey the key to insert the group with
+     * @param first    the key of the first action of the group
+     * @param last     the key of the last action of the group
+     * @param <T>      The type of value to be used as the key.
+     * @return the created group
+     */
+    public static <T> CommutativeGroup<T> of(Pipeline<T> pipeline, T groupKey, T first, T last) {
+        Objects.requireNonNull(groupKey);
+        Objects.requireNonNull(first);
+        Objects.requireNonNull(last);
+        CommutativeGroup<T> ret = new CommutativeGroup<>();
+        pipeline.update(copy -> {
+            T previous = null;
+            boolean found = false;
+            for (Node<T, Action<Object, Object>> node : Util.collect(copy)) {
+                if (!found && !node.getKey().equals(first)) {
+                    previous = node.getKey();
+                    continue;
+                }
+                found = true;
+                ret.put(node.getKey(), node.getValue());
+                copy.remove(node.getKey());
+                if (node.getKey().equals(last)) {
+                    break;
+                }
+            }
+            if (!ret.contains(first) || !ret.contains(last)) {
+                throw new NoSuchElementException();
+            }
+            if (previous == null) {
+                copy.insertFirst(groupKey, ret);
+            } else {
+                copy.insertAfter(previous, groupKey, ret);
+            }
+        });
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Stage<T>[] allocate(int length) {
+        return (Stage<T>[]) new Stage<?>[length];
+    }
+
+    @Override
+    public Object execute(Object o) throws Throwable {
+        Stage<T>[] stages = this.stages.get();
+        if (ThreadLocalRandom.current().nextInt(samplePeriod) != 0) {
+            for (Stage<T> stage : stages) {
+                o = stage.action.execute(o);
+            }
+            return o;
+        }
+        try {
+            for (Stage<T> stage : stages) {
+                long start = System.nanoTime();
+                try {
+                    o = stage.action.execute(o);
+                } catch (InterruptException e) {
+                    stage.record(System.nanoTime() - start, true);
+                    throw e;
+                }
+                stage.record(System.nanoTime() - start, false);
+            }
+        } finally {
+            if (samples.incrementAndGet() % reorderPeriod == 0) {
+                reorder();
+            }
+        }
+        return o;
+    }
+
+    /**
+     * Returns whether any of the actions is asynchronous.
+     *
+     * @return true if the group contains an asynchronous action, false otherwise
+     */
+    @Override
+    public boolean isAsync() {
+        for (Stage<T> stage : stages.get()) {
+            if (stage.action.isAsync()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Object> async(Object o) {
+        return async(o, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns completable future contains this group executing.
+     * Synchronous actions are executed by the calling thread, asynchronous ones are started
+     * by {@link Action#async(Object, Executor)} and the following actions continue when they complete.
+     *
+     * @param o        the group argument
+     * @param executor the executor passed to the asynchronous actions
+     * @return {@link CompletableFuture} returns group result
+     */
+    @Override
+    public CompletableFuture<Object> async(Object o, Executor executor) {
+        Objects.requireNonNull(executor);
+        Stage<T>[] stages = this.stages.get();
+        boolean sampled = ThreadLocalRandom.current().nextInt(samplePeriod) == 0;
+        CompletableFuture<Object> ret = run(stages, 0, o, executor, sampled);
+        if (!sampled) {
+            return ret;
+        }
+        return ret.whenComplete((value, throwable) -> {
+            if (samples.incrementAndGet() % reorderPeriod == 0) {
+                reorder();
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<Object> run(Stage<T>[] stages,
+                                                     int from,
+                                                     Object o,
+                                                     Executor executor,
+                                                     boolean sampled) {
+        for (int i = from; i < stages.length; ++i) {
+            Stage<T> stage = stages[i];
+            long start = sampled ? System.nanoTime() : 0;
+            if (stage.action.isAsync()) {
+                int next = i + 1;
+                CompletableFuture<Object> future;
+                try {
+                    future = stage.action.async(o, executor);
+                } catch (Throwable e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                if (sampled) {
+                    future = future.whenComplete((value, throwable) -> {
+                        boolean rejected = throwable != null && Util.unwrap(throwable) instanceof InterruptException;
+                        if (throwable == null || rejected) {
+                            stage.record(System.nanoTime() - start, rejected);
+                        }
+                    });
+                }
+                return future.thenCompose(value -> run(stages, next, value, executor, sampled));
+            }
+            try {
+                o = stage.action.execute(o);
+            } catch (Throwable e) {
+                if (sampled && e instanceof InterruptException) {
+                    stage.record(System.nanoTime() - start, true);
+                }
+                CompletableFuture<Object> ret = new CompletableFuture<>();
+                ret.completeExceptionally(e);
+                return ret;
+            }
+            if (sampled) {
+                stage.record(System.nanoTime() - start, false);
+            }
+        }
+        return CompletableFuture.completedFuture(o);
+    }
+
+    /**
+     * Reorders the actions by the metrics collected since the previous reordering.
+     * Does nothing if another reordering is in progress.
+     */
+    public void reorder() {
+        if (!reordering.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Stage<T>[] stages = this.stages.get();
+            Stage<T>[] updated = stages.clone();
+            double total = 0;
+            int measured = 0;
+            for (Stage<T> stage : updated) {
+                stage.update();
+                if (stage.measured) {
+                    total += stage.rank();
+                    ++measured;
+                }
+            }
+            double mean = measured == 0 ? 0 : total / measured;
+            for (Stage<T> stage : updated) {
+                stage.order = stage.measured ? stage.rank() : mean;
+            }
+            Arrays.sort(updated, Comparator.comparingDouble(stage -> stage.order));
+            // A concurrent change of the actions wins, the next reordering will take it into account
+            this.stages.compareAndSet(stages, updated);
+        } finally {
+            reordering.set(false);
+        }
+    }
+
+    /**
+     * Returns the action belonging to the passed key.
+     *
+     * @param key action key, cannot be null.
+     * @return found action or null
+     */
+    public Action<?, ?> get(T key) {
+        Stage<T> found = find(stages.get(), Objects.requireNonNull(key));
+        return found == null ? null : found.action;
+    }
+
+    /**
+     * Puts an action with a key into the group.
+     *
+     * @param key   action key to be inserted
+     * @param value action to be inserted
+     * @return an action that has already been with the same key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public Action<?, ?> put(T key, Action<?, ?> value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        synchronized (lock) {
+            Stage<T>[] stages = this.stages.get();
+            Stage<T> toAdd = new Stage<>(key, (Action<Object, Object>) value);
+            for (int i = 0; i < stages.length; ++i) {
+                if (stages[i].key.equals(key)) {
+                    Stage<T>[] updated = stages.clone();
+                    updated[i] = toAdd;
+                    this.stages.set(updated);
+                    return stages[i].action;
+                }
+            }
+            Stage<T>[] updated = Arrays.copyOf(stages, stages.length + 1);
+            updated[stages.length] = toAdd;
+            this.stages.set(updated);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the action by key.
+     *
+     * @param key the key by which the search and deletion will be performed.
+     * @return removed action, if it existed, or null
+     */
+    public Action<?, ?> remove(T key) {
+        Objects.requireNonNull(key);
+        synchronized (lock) {
+            Stage<T>[] stages = this.stages.get();
+            for (int i = 0; i < stages.length; ++i) {
+                if (stages[i].key.equals(key)) {
+                    Stage<T>[] updated = allocate(stages.length - 1);
+                    System.arraycopy(stages, 0, updated, 0, i);
+                    System.arraycopy(stages, i + 1, updated, i, stages.length - i - 1);
+                    this.stages.set(updated);
+                    return stages[i].action;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the group contains a key.
+     *
+     * @param key the key to be checked
+     * @return result of checking
+     */
+    public boolean contains(T key) {
+        return find(stages.get(), key) != null;
+    }
+
+    /**
+     * @return number of actions in the group
+     */
+    public int size() {
+        return stages.get().length;
+    }
+
+    /**
+     * Returns the estimated cost of the action.
+     *
+     * @param key the key of the action
+     * @return the average execution time in nanoseconds, or -1 if there is no such action
+     */
+    public double getCost(T key) {
+        Stage<T> found = find(stages.get(), key);
+        return found == null ? -1 : found.cost;
+    }
+
+    /**
+     * Returns the estimated rejection rate of the action.
+     *
+     * @param key the key of the action
+     * @return the share of the rejected values from 0 to 1, or -1 if there is no such action
+     */
+    public double getRejectionRate(T key) {
+        Stage<T> found = find(stages.get(), key);
+        return found == null ? -1 : found.rejection;
+    }
+
+    private Stage<T> find(Stage<T>[] stages, T key) {
+        for (Stage<T> stage : stages) {
+            if (stage.key.equals(key)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an iterator over the actions in the current order of execution.
+     *
+     * @return {@link Iterator} instance
+     */
+    @Override
+    public Iterator<Node<T, Action<Object, Object>>> iterator() {
+        Stage<T>[] stages = this.stages.get();
+        List<Node<T, Action<Object, Object>>> ret = new ArrayList<>(stages.length);
+        for (Stage<T> stage : stages) {
+            ret.add(new Node<>(stage.key, stage.action));
+        }
+        return Collections.unmodifiableList(ret).iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner ret = new StringJoiner(", ", "[", "]");
+        for (Stage<T> stage : stages.get()) {
+            ret.add(String.valueOf(stage.key));
+        }
+        return ret.toString();
+    }
+
+    private static final class Stage<T> {
+        private final T key;
+        private final Action<Object, Object> action;
+        private final LongAdder calls;
+        private final LongAdder rejects;
+        private final LongAdder nanos;
+        private volatile double cost;
+        private volatile double rejection;
+        private boolean measured;
+        private double order;
+
+        private Stage(T key, Action<Object, Object> action) {
+            this.key = key;
+            this.action = action;
+            this.calls = new LongAdder();
+            this.rejects = new LongAdder();
+            this.nanos = new LongAdder();
+        }
+
+        private void record(long elapsed, boolean rejected) {
+            calls.increment();
+            nanos.add(elapsed);
+            if (rejected) {
+                rejects.increment();
+            }
+        }
+
+        // Stages without new observations keep their estimates
+        private void update() {
+            long calls = this.calls.sumThenReset();
+            long rejects = this.rejects.sumThenReset();
+            long nanos = this.nanos.sumThenReset();
+            if (calls == 0) {
+                return;
+            }
+            double cost = (double) nanos / calls;
+            double rejection = (double) rejects / calls;
+            if (measured) {
+                cost = ALPHA * cost + (1 - ALPHA) * this.cost;
+                rejection = ALPHA * rejection + (1 - ALPHA) * this.rejection;
+            }
+            this.cost = cost;
+            this.rejection = rejection;
+            this.measured = true;
+        }
+
+        private double rank() {
+            return cost / Math.max(rejection, MIN_REJECTION);
+        }
+    }
+}
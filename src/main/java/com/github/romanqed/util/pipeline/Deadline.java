@@ -0,0 +1,76 @@
+package com.github.romanqed.util.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A point in time by which the asynchronous execution of a pipeline must be completed.</p>
+ * <p>While the pipeline is executed by {@link Pipeline#async(Object, java.util.concurrent.Executor, Deadline)},
+ * its actions can get the deadline by {@link #current()} and check the remaining time budget.</p>
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    private final long time;
+
+    private Deadline(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Creates a deadline after the specified duration from now.
+     *
+     * @param duration the duration
+     * @param unit     the unit of the duration
+     * @return {@link Deadline} instance
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        long now = System.nanoTime();
+        long nanos = unit.toNanos(duration);
+        // Avoid overflow for very large durations
+        return new Deadline(nanos > Long.MAX_VALUE / 2 ? now + Long.MAX_VALUE / 2 : now + nanos);
+    }
+
+    /**
+     * Returns the deadline of the pipeline executed by the current thread.
+     *
+     * @return {@link Deadline} instance or null, if there is no deadline
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    static Deadline enter(Deadline deadline) {
+        Deadline ret = CURRENT.get();
+        CURRENT.set(deadline);
+        return ret;
+    }
+
+    static void exit(Deadline previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Returns the remaining time budget.
+     *
+     * @param unit the unit of the result
+     * @return the remaining time, or 0 if the deadline has passed
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(0, time - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if the deadline has passed, false otherwise
+     */
+    public boolean isExpired() {
+        return time - System.nanoTime() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + remaining(TimeUnit.MILLISECONDS) + "ms}";
+    }
+}
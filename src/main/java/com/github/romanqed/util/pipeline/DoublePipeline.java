@@ -0,0 +1,31 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.DoubleAction;
+
+/**
+ * <p>A pipeline of {@link DoubleAction}, which passes {@code double} values between stages without boxing.</p>
+ * <p>Since the pipeline is itself an {@link DoubleAction}, nested pipelines can be created.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
+public class DoublePipeline<T> extends PrimitivePipeline<T, DoubleAction> implements DoubleAction {
+    @Override
+    DoubleAction[] allocate(int length) {
+        return new DoubleAction[length];
+    }
+
+    @Override
+    public double execute(double t) throws Throwable {
+        DoubleAction[] actions = actions();
+        double data = t;
+        try {
+            for (DoubleAction action : actions) {
+                data = action.execute(data);
+            }
+        } catch (InterruptException e) {
+            Object body = e.getBody();
+            return body instanceof Number ? ((Number) body).doubleValue() : data;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>An action that executes several independent branches for the same input in parallel
+ * and combines their results by the join action.</p>
+ * <p>It can be used as a pipeline stage to build fan-out and fan-in parts of the pipeline.
+ * The join action receives the results of the branches in the order in which the branches were specified.</p>
+ * <p>If any branch throws an exception, including {@link InterruptException}, it is thrown outside
+ * without waiting for the other forked branches. The branches that have not started yet are skipped and the asynchronous ones
+ * are cancelled, while the branches already being executed finish and their results are discarded.</p>
+ * <p>When the action is a stage of an asynchronously executed pipeline, the branches are forked
+ * to the executor of the pipeline, or to the executor the stage is bound to.</p>
+ *
+ * @param <R> the type of the result of the join action
+ */
+public class ForkAction<R> implements Action<Object, R> {
+    private final Executor executor;
+    private final Action<Object, Object>[] branches;
+    private final Action<? super List<Object>, ? extends R> join;
+
+    @SuppressWarnings("unchecked")
+    public ForkAction(Executor executor, Action<? super List<Object>, ? extends R> join, Action<?, ?>... branches) {
+        this.executor = Objects.requireNonNull(executor);
+        this.join = Objects.requireNonNull(join);
+        this.branches = (Action<Object, Object>[]) branches.clone();
+        for (Action<?, ?> branch : this.branches) {
+            Objects.requireNonNull(branch);
+        }
+    }
+
+    public ForkAction(Action<? super List<Object>, ? extends R> join, Action<?, ?>... branches) {
+        this(ForkJoinPool.commonPool(), join, branches);
+    }
+
+    private static Object call(Action<Object, Object> action, Object o) {
+        try {
+            return action.execute(o);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    public List<Action<?, ?>> getBranches() {
+        return Arrays.asList(branches);
+    }
+
+    public Action<? super List<Object>, ? extends R> getJoin() {
+        return join;
+    }
+
+    /**
+     * The branches are forked without blocking the calling thread.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    private static void cancel(CompletableFuture<Object>[] forked, AtomicBoolean cancelled) {
+        cancelled.set(true);
+        for (CompletableFuture<Object> future : forked) {
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private CompletableFuture<Object> fork(Action<Object, Object> branch,
+                                           Object o,
+                                           Executor executor,
+                                           AtomicBoolean cancelled) {
+        if (cancelled.get()) {
+            CompletableFuture<Object> ret = new CompletableFuture<>();
+            ret.cancel(false);
+            return ret;
+        }
+        if (branch.isAsync()) {
+            try {
+                return branch.async(o, executor);
+            } catch (Throwable e) {
+                CompletableFuture<Object> ret = new CompletableFuture<>();
+                ret.completeExceptionally(e);
+                return ret;
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            if (cancelled.get()) {
+                throw new CancellationException();
+            }
+            return call(branch, o);
+        }, executor).thenCompose(Util::toStage);
+    }
+
+    /**
+     * Returns a future completed with the results of the branches once all of them have succeeded,
+     * or with the exception of the first failed branch, in which case the other branches are cancelled.
+     */
+    private static CompletableFuture<List<Object>> collect(CompletableFuture<Object>[] forked,
+                                                           AtomicBoolean cancelled) {
+        CompletableFuture<List<Object>> ret = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(forked.length);
+        for (CompletableFuture<Object> future : forked) {
+            future.whenComplete((value, throwable) -> {
+                if (throwable != null) {
+                    if (ret.completeExceptionally(Util.unwrap(throwable))) {
+                        cancel(forked, cancelled);
+                    }
+                    return;
+                }
+                if (remaining.decrementAndGet() != 0) {
+                    return;
+                }
+                List<Object> results = new ArrayList<>(forked.length);
+                for (CompletableFuture<Object> completed : forked) {
+                    results.add(completed.join());
+                }
+                ret.complete(results);
+            });
+        }
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R execute(Object o) throws Throwable {
+        int length = branches.length;
+        if (length == 0) {
+            return join.execute(new ArrayList<>());
+        }
+        AtomicBoolean cancelled = new AtomicBoolean();
+        CompletableFuture<Object>[] forked = (CompletableFuture<Object>[]) new CompletableFuture<?>[length];
+        // The first branch is executed by the calling thread
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        forked[0] = first;
+        for (int i = 1; i < length; ++i) {
+            forked[i] = fork(branches[i], o, executor, cancelled);
+        }
+        CompletableFuture<List<Object>> results = collect(forked, cancelled);
+        if (!cancelled.get()) {
+            try {
+                first.complete(branches[0].execute(o));
+            } catch (Throwable e) {
+                first.completeExceptionally(e);
+            }
+        }
+        List<Object> values;
+        try {
+            values = results.get();
+        } catch (InterruptedException e) {
+            cancel(forked, cancelled);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+        return join.execute(values);
+    }
+
+    /**
+     * Returns completable future contains this action executing.
+     * The branches are forked to the specified executor instead of the executor of the action.
+     *
+     * @param o        the action argument
+     * @param executor the executor to fork the branches to
+     * @return {@link CompletableFuture} returns action result
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<R> async(Object o, Executor executor) {
+        Objects.requireNonNull(executor);
+        int length = branches.length;
+        AtomicBoolean cancelled = new AtomicBoolean();
+        CompletableFuture<Object>[] forked = (CompletableFuture<Object>[]) new CompletableFuture<?>[length];
+        for (int i = 0; i < length; ++i) {
+            forked[i] = fork(branches[i], o, executor, cancelled);
+        }
+        return collect(forked, cancelled).thenApply(results -> {
+            try {
+                return join.execute(results);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<R> async(Object o) {
+        return async(o, executor);
+    }
+}
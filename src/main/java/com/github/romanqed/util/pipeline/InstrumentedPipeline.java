@@ -0,0 +1,279 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Node;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * <p>A pipeline decorator that collects the metrics of each stage: the number of invocations,
+ * exceptions and interrupts, and the histogram of the execution time.</p>
+ * <p>The metrics are recorded lock-free, and when recording is disabled, each stage costs only
+ * one additional volatile read.</p>
+ * <p>Actions are stored in the decorated pipeline wrapped, but all methods returning actions
+ * return them in the form in which they were put.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
+public class InstrumentedPipeline<T> implements Pipeline<T> {
+    final Pipeline<T> delegate;
+    private final InstrumentedPipeline<T> owner;
+    private final Map<T, StageMetrics> metrics;
+    private volatile boolean enabled;
+
+    public InstrumentedPipeline(Pipeline<T> delegate) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.owner = this;
+        this.metrics = new ConcurrentHashMap<>();
+        this.enabled = true;
+        // Wrap all the stages at once, so concurrent executions never see a partially wrapped pipeline
+        delegate.update(copy -> {
+            for (Node<T, Action<Object, Object>> node : Util.collect(copy)) {
+                copy.put(node.getKey(), wrap(node.getKey(), node.getValue()));
+            }
+        });
+    }
+
+    // A view of the working copy of a transaction, sharing the metrics of the owner
+    private InstrumentedPipeline(Pipeline<T> delegate, InstrumentedPipeline<T> owner) {
+        this.delegate = delegate;
+        this.owner = owner;
+        this.metrics = owner.metrics;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Action<?, ?> unwrap(Action<?, ?> action) {
+        if (action instanceof MeasuredAction) {
+            return ((MeasuredAction) action).origin;
+        }
+        if (action instanceof AsyncStage && ((AsyncStage<Object, Object>) action).getBody() instanceof MeasuredAction) {
+            return ((MeasuredAction) ((AsyncStage<Object, Object>) action).getBody()).origin;
+        }
+        return action;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Action<?, ?> wrap(T key, Action<?, ?> action) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(action);
+        Action<?, ?> origin = unwrap(action);
+        Action<Object, Object> body = (Action<Object, Object>) origin;
+        AsyncStage<Object, Object> boundary = null;
+        if (body instanceof AsyncStage) {
+            boundary = (AsyncStage<Object, Object>) body;
+            body = boundary.getBody();
+        }
+        StageMetrics metrics = this.metrics.computeIfAbsent(key, k -> new StageMetrics());
+        MeasuredAction ret = body instanceof BatchAction ?
+                new MeasuredAction.Batch((BatchAction<Object, Object>) body, origin, metrics, owner) :
+                new MeasuredAction(body, origin, metrics, owner);
+        return boundary == null ? ret : new AsyncStage<>(ret, boundary.getExecutor());
+    }
+
+    /**
+     * @return true if the metrics are recorded, false otherwise
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables recording of the metrics.
+     *
+     * @param enabled the flag
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the metrics of the stage with the specified key.
+     *
+     * @param key the key of the stage
+     * @return found metrics or null
+     */
+    public StageMetrics getMetrics(T key) {
+        return metrics.get(key);
+    }
+
+    /**
+     * Returns the metrics of all stages in the order of their execution.
+     *
+     * @return unmodifiable map containing the metrics
+     */
+    public Map<T, StageMetrics> snapshot() {
+        Map<T, StageMetrics> ret = new LinkedHashMap<>();
+        for (Node<T, Action<Object, Object>> node : delegate) {
+            StageMetrics found = metrics.get(node.getKey());
+            if (found != null) {
+                ret.put(node.getKey(), found);
+            }
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    /**
+     * Resets the metrics of all stages.
+     */
+    public void reset() {
+        for (StageMetrics found : metrics.values()) {
+            found.reset();
+        }
+    }
+
+    @Override
+    public Object execute(Object o) throws Throwable {
+        return delegate.execute(o);
+    }
+
+    @Override
+    public CompletableFuture<Object> async(Object o) {
+        return delegate.async(o);
+    }
+
+    @Override
+    public CompletableFuture<Object> async(Object o, Executor executor) {
+        return delegate.async(o, executor);
+    }
+
+    @Override
+    public Object executeFrom(T key, Object o) throws Throwable {
+        return delegate.executeFrom(key, o);
+    }
+
+    @Override
+    public CompletableFuture<Object> asyncFrom(T key, Object o, Executor executor) {
+        return delegate.asyncFrom(key, o, executor);
+    }
+
+    @Override
+    public List<Object> executeBatch(List<?> inputs) throws Throwable {
+        return delegate.executeBatch(inputs);
+    }
+
+    @Override
+    public Action<?, ?> get(T key) {
+        return unwrap(delegate.get(key));
+    }
+
+    @Override
+    public Action<?, ?> put(T key, Action<?, ?> value) {
+        return unwrap(delegate.put(key, wrap(key, value)));
+    }
+
+    @Override
+    public Action<?, ?> remove(T key) {
+        Action<?, ?> ret = delegate.remove(key);
+        if (ret != null && owner == this) {
+            metrics.remove(key);
+        }
+        return unwrap(ret);
+    }
+
+    @Override
+    public boolean contains(T key) {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public void insertAfter(T key, T insertKey, Action<?, ?> value) {
+        Action<?, ?> wrapped = wrap(insertKey, value);
+        try {
+            delegate.insertAfter(key, insertKey, wrapped);
+        } catch (RuntimeException e) {
+            discard(insertKey);
+            throw e;
+        }
+    }
+
+    @Override
+    public void insertBefore(T key, T insertKey, Action<?, ?> value) {
+        Action<?, ?> wrapped = wrap(insertKey, value);
+        try {
+            delegate.insertBefore(key, insertKey, wrapped);
+        } catch (RuntimeException e) {
+            discard(insertKey);
+            throw e;
+        }
+    }
+
+    @Override
+    public void insertFirst(T key, Action<?, ?> value) {
+        Action<?, ?> wrapped = wrap(key, value);
+        try {
+            delegate.insertFirst(key, wrapped);
+        } catch (RuntimeException e) {
+            discard(key);
+            throw e;
+        }
+    }
+
+    private void discard(T key) {
+        if (owner == this && !delegate.contains(key)) {
+            metrics.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        if (owner == this) {
+            metrics.clear();
+        }
+    }
+
+    @Override
+    public void update(Consumer<? super Pipeline<T>> transaction) {
+        Objects.requireNonNull(transaction);
+        try {
+            delegate.update(copy -> transaction.accept(new InstrumentedPipeline<>(copy, owner)));
+        } finally {
+            // The metrics of the stages removed or not published by the transaction are discarded
+            if (owner == this) {
+                metrics.keySet().removeIf(key -> !delegate.contains(key));
+            }
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Node<T, Action<Object, Object>>> iterator() {
+        Iterator<Node<T, Action<Object, Object>>> iterator = delegate.iterator();
+        return new Iterator<Node<T, Action<Object, Object>>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Node<T, Action<Object, Object>> next() {
+                Node<T, Action<Object, Object>> node = iterator.next();
+                return new Node<>(node.getKey(), (Action<Object, Object>) unwrap(node.getValue()));
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.IntAction;
+import com.github.romanqed.util.ToDoubleAction;
+
+/**
+ * <p>A pipeline of {@link IntAction}, which passes {@code int} values between stages without boxing.</p>
+ * <p>Since the pipeline is itself an {@link IntAction}, nested pipelines can be created.</p>
+ * <p>A {@link ToDoubleAction} can continue the pipeline with a {@link DoublePipeline} without boxing,
+ * for example, {@code ToDoubleAction.widening().compose(ints).andThen(doubles)}.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
+public class IntPipeline<T> extends PrimitivePipeline<T, IntAction> implements IntAction {
+    @Override
+    IntAction[] allocate(int length) {
+        return new IntAction[length];
+    }
+
+    @Override
+    public int execute(int t) throws Throwable {
+        IntAction[] actions = actions();
+        int data = t;
+        try {
+            for (IntAction action : actions) {
+                data = action.execute(data);
+            }
+        } catch (InterruptException e) {
+            Object body = e.getBody();
+            return body instanceof Number ? ((Number) body).intValue() : data;
+        }
+        return data;
+    }
+}
@@ -1,29 +1,38 @@
 package com.github.romanqed.util.pipeline;
 
 /**
- * An exception that is an interrupt marker for the pipeline.
+ * <p>An exception that is an interrupt marker for the pipeline.</p>
+ * <p>Since it is only used for control flow, it does not fill in the stack trace and
+ * does not record suppressed exceptions, so throwing it is cheap.</p>
  */
 public class InterruptException extends RuntimeException {
+    private static final InterruptException EMPTY = new InterruptException();
     private final Object body;
 
     public InterruptException(String message, Object body) {
-        super(message);
+        super(message, null, false, false);
         this.body = body;
     }
 
     public InterruptException(String message) {
-        super(message);
-        this.body = null;
+        this(message, null);
     }
 
     public InterruptException(Object body) {
-        super();
-        this.body = body;
+        this(null, body);
     }
 
     public InterruptException() {
-        super();
-        this.body = null;
+        this(null, null);
+    }
+
+    /**
+     * Returns a shared preallocated interrupt marker without a body.
+     *
+     * @return {@link InterruptException} instance, which body is null
+     */
+    public static InterruptException empty() {
+        return EMPTY;
     }
 
     public Object getBody() {
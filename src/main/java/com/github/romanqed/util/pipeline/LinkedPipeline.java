@@ -9,31 +9,68 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+/**
+ * <p>A pipeline that stores its actions in a doubly linked list indexed by key.</p>
+ * <p>Insertion, removal and replacement of an action take constant time.
+ * Replacing an action with {@link #put(Object, Action)} swaps it in place,
+ * so executions already in progress see the new action if they have not passed it yet.</p>
+ * <p>A transaction is applied to a copy of the actions, from which a new chain is built
+ * and published as a whole, so executions passing through the old chain are not affected.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
 public class LinkedPipeline<T> implements Pipeline<T> {
     private final Object lock;
-    private final Map<T, ActionLink<T>> body;
-    private final Map<T, T> parents;
-    private ActionLink<T> head;
+    private volatile Map<T, ActionLink<T>> body;
+    private volatile ActionLink<T> head;
     private ActionLink<T> tail;
+    private volatile Node<T, Action<Object, Object>>[] snapshot;
+    private volatile long version;
 
     public LinkedPipeline() {
         lock = new Object();
         body = new ConcurrentHashMap<>();
-        parents = new ConcurrentHashMap<>();
     }
 
     @Override
     public Object execute(Object o) throws Throwable {
         Object data = o;
         ActionLink<?> cur = head;
-        while (cur != null) {
-            try {
+        try {
+            while (cur != null) {
                 data = cur.getBody().execute(data);
-            } catch (InterruptException e) {
-                return e.getBody();
+                cur = cur.tail();
             }
-            cur = cur.tail();
+        } catch (InterruptException e) {
+            return e.getBody();
+        }
+        return data;
+    }
+
+    @Override
+    public Object executeFrom(T key, Object o) throws Throwable {
+        Objects.requireNonNull(key);
+        ActionLink<T> cur = body.get(key);
+        if (cur == null) {
+            throw new NoSuchElementException();
+        }
+        ActionLink<T> last = null;
+        Object data = o;
+        try {
+            while (cur != null) {
+                data = cur.getBody().execute(data);
+                last = cur;
+                cur = cur.tail();
+            }
+        } catch (InterruptException e) {
+            return e.getBody();
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new StageException(cur.getKey(), last == null ? null : last.getKey(), data, e);
         }
         return data;
     }
@@ -44,15 +81,34 @@ public class LinkedPipeline<T> implements Pipeline<T> {
         if (cur == null) {
             return CompletableFuture.completedFuture(o);
         }
-        CompletableFuture<Object> ret = cur.getBody().async(o);
+        CompletableFuture<Object> ret = cur.getBody().async(o).thenCompose(Util::toStage);
         cur = cur.tail();
         while (cur != null) {
-            ret = ret.thenApplyAsync(Util.packToFunction(cur.getBody()));
+            ret = Util.thenCompose(ret, cur.getBody());
             cur = cur.tail();
         }
         return ret.exceptionally(Util.EXCEPTION_HANDLER);
     }
 
+    @Override
+    public CompletableFuture<Object> async(Object o, Executor executor) {
+        Objects.requireNonNull(executor);
+        return AsyncRunner.run(snapshot(), o, executor);
+    }
+
+    Node<T, Action<Object, Object>>[] snapshot() {
+        Node<T, Action<Object, Object>>[] ret = snapshot;
+        if (ret != null) {
+            return ret;
+        }
+        synchronized (lock) {
+            if (snapshot == null) {
+                snapshot = Util.collect(this);
+            }
+            return snapshot;
+        }
+    }
+
     @Override
     public Action<?, ?> get(T key) {
         ActionLink<T> ret = body.get(key);
@@ -64,55 +120,36 @@ public class LinkedPipeline<T> implements Pipeline<T> {
 
     @Override
     public Action<?, ?> put(T key, Action<?, ?> value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
         synchronized (lock) {
-            ActionLink<T> toAdd = new ActionLink<>(key, value);
-            ActionLink<T> ret = body.put(key, toAdd);
-            if (ret == null) {
-                if (head == null) {
-                    head = toAdd;
-                } else {
-                    tail.attach(toAdd);
-                    parents.put(key, tail.getKey());
-                }
-                tail = toAdd;
-                return null;
+            snapshot = null;
+            ActionLink<T> found = body.get(key);
+            if (found != null) {
+                Action<?, ?> ret = found.getBody();
+                found.setBody(value);
+                ++version;
+                return ret;
             }
-            if (ret == head) {
-                head = toAdd;
-                toAdd.attach(ret.detach());
-            } else if (ret == tail) {
-                tail = toAdd;
-                body.get(parents.get(ret.getKey())).attach(toAdd);
-            }
-            return ret.getBody();
+            ActionLink<T> toAdd = new ActionLink<>(key, value);
+            link(tail, toAdd);
+            body.put(key, toAdd);
+            ++version;
+            return null;
         }
     }
 
     @Override
     public Action<?, ?> remove(T key) {
+        Objects.requireNonNull(key);
         synchronized (lock) {
             ActionLink<T> ret = body.remove(key);
             if (ret == null) {
                 return null;
             }
-            ActionLink<T> tail = ret.detach();
-            if (ret == head) {
-                head = tail;
-                if (tail == null) {
-                    this.tail = null;
-                } else {
-                    parents.remove(tail.getKey());
-                }
-            } else {
-                ActionLink<T> parent = body.get(parents.remove(key));
-                if (ret == this.tail) {
-                    parent.detach();
-                    this.tail = parent;
-                } else {
-                    parents.put(tail.getKey(), parent.getKey());
-                    parent.attach(tail);
-                }
-            }
+            snapshot = null;
+            unlink(ret);
+            ++version;
             return ret.getBody();
         }
     }
@@ -122,76 +159,122 @@ public class LinkedPipeline<T> implements Pipeline<T> {
         return body.containsKey(key);
     }
 
-    private void insert(T key, ActionLink<T> value, boolean after) {
-        Objects.requireNonNull(key);
-        if (value == null) {
-            return;
-        }
-        ActionLink<T> pos = body.get(key);
-        Objects.requireNonNull(pos);
-        if (after) {
-            ActionLink<T> child = pos.detach();
-            value.attach(child);
-            pos.attach(value);
-            if (pos == tail) {
-                tail = value;
-            } else {
-                parents.put(child.getKey(), value.getKey());
-            }
-            parents.put(value.getKey(), key);
+    private void link(ActionLink<T> parent, ActionLink<T> value) {
+        ActionLink<T> child = parent == null ? head : parent.tail();
+        value.setParent(parent);
+        value.attach(child);
+        if (child == null) {
+            tail = value;
         } else {
-            value.attach(pos);
-            if (pos == head) {
-                head = value;
-            } else {
-                ActionLink<T> parent = body.get(parents.remove(key));
-                parent.attach(value);
-                parents.put(value.getKey(), parent.getKey());
-            }
-            parents.put(key, value.getKey());
+            child.setParent(value);
+        }
+        // The tails are volatile, so the link is published only when it is completely attached
+        if (parent == null) {
+            head = value;
+        } else {
+            parent.attach(value);
         }
     }
 
-    private void insert(T key, T insertKey, Action<?, ?> value, boolean after) {
-        if (body.containsKey(insertKey)) {
-            throw new IllegalStateException("Pipeline already contains key " + insertKey + "!");
+    private void unlink(ActionLink<T> value) {
+        // The removed link keeps its tail, so executions passing through it can continue
+        ActionLink<T> parent = value.parent();
+        ActionLink<T> child = value.tail();
+        if (parent == null) {
+            head = child;
+        } else {
+            parent.attach(child);
+        }
+        if (child == null) {
+            tail = parent;
+        } else {
+            child.setParent(parent);
         }
+    }
+
+    private void insert(T key, T insertKey, Action<?, ?> value, boolean first) {
+        Objects.requireNonNull(insertKey);
+        Objects.requireNonNull(value);
         synchronized (lock) {
+            if (body.containsKey(insertKey)) {
+                throw new IllegalStateException("Pipeline already contains key " + insertKey + "!");
+            }
+            ActionLink<T> parent = null;
+            if (key != null) {
+                ActionLink<T> pos = body.get(key);
+                if (pos == null) {
+                    throw new NoSuchElementException();
+                }
+                parent = first ? pos.parent() : pos;
+            }
+            snapshot = null;
             ActionLink<T> toInsert = new ActionLink<>(insertKey, value);
+            link(parent, toInsert);
             body.put(insertKey, toInsert);
-            insert(key, toInsert, after);
+            ++version;
         }
     }
 
     @Override
     public void insertAfter(T key, T insertKey, Action<?, ?> value) {
-        insert(key, insertKey, value, true);
+        insert(Objects.requireNonNull(key), insertKey, value, false);
     }
 
     @Override
     public void insertBefore(T key, T insertKey, Action<?, ?> value) {
-        insert(key, insertKey, value, false);
+        insert(Objects.requireNonNull(key), insertKey, value, true);
     }
 
     @Override
     public void insertFirst(T key, Action<?, ?> value) {
-        if (isEmpty()) {
-            put(key, value);
-            return;
-        }
-        insertBefore(head.getKey(), key, value);
+        insert(null, key, value, true);
     }
 
     @Override
     public void clear() {
         synchronized (lock) {
+            snapshot = null;
             tail = null;
             head = null;
-            parents.clear();
             body.clear();
+            ++version;
+        }
+    }
+
+    @Override
+    public void update(Consumer<? super Pipeline<T>> transaction) {
+        Objects.requireNonNull(transaction);
+        synchronized (lock) {
+            ArrayPipeline<T> copy = new ArrayPipeline<>(snapshot());
+            transaction.accept(copy);
+            Node<T, Action<Object, Object>>[] nodes = copy.snapshot();
+            Map<T, ActionLink<T>> body = new ConcurrentHashMap<>();
+            ActionLink<T> head = null;
+            ActionLink<T> tail = null;
+            for (Node<T, Action<Object, Object>> node : nodes) {
+                ActionLink<T> link = new ActionLink<>(node.getKey(), node.getValue());
+                link.setParent(tail);
+                if (tail == null) {
+                    head = link;
+                } else {
+                    tail.attach(link);
+                }
+                tail = link;
+                body.put(node.getKey(), link);
+            }
+            this.body = body;
+            this.tail = tail;
+            this.head = head;
+            this.snapshot = nodes;
+            ++version;
         }
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     @Override
     public int size() {
         return body.size();
@@ -0,0 +1,31 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.LongAction;
+
+/**
+ * <p>A pipeline of {@link LongAction}, which passes {@code long} values between stages without boxing.</p>
+ * <p>Since the pipeline is itself an {@link LongAction}, nested pipelines can be created.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ */
+public class LongPipeline<T> extends PrimitivePipeline<T, LongAction> implements LongAction {
+    @Override
+    LongAction[] allocate(int length) {
+        return new LongAction[length];
+    }
+
+    @Override
+    public long execute(long t) throws Throwable {
+        LongAction[] actions = actions();
+        long data = t;
+        try {
+            for (LongAction action : actions) {
+                data = action.execute(data);
+            }
+        } catch (InterruptException e) {
+            Object body = e.getBody();
+            return body instanceof Number ? ((Number) body).longValue() : data;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An action recording the metrics of the wrapped pipeline stage.
+ */
+class MeasuredAction implements Action<Object, Object> {
+    final Action<Object, Object> body;
+    final Action<?, ?> origin;
+    final StageMetrics metrics;
+    final InstrumentedPipeline<?> owner;
+
+    MeasuredAction(Action<Object, Object> body, Action<?, ?> origin, StageMetrics metrics, InstrumentedPipeline<?> owner) {
+        this.body = body;
+        this.origin = origin;
+        this.metrics = metrics;
+        this.owner = owner;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return body.isAsync();
+    }
+
+    @Override
+    public Object execute(Object o) throws Throwable {
+        if (!owner.isEnabled()) {
+            return body.execute(o);
+        }
+        long start = System.nanoTime();
+        Object ret;
+        try {
+            ret = body.execute(o);
+        } catch (InterruptException e) {
+            metrics.recordInterrupt(System.nanoTime() - start, 1);
+            throw e;
+        } catch (Throwable e) {
+            metrics.recordFailure(System.nanoTime() - start, 1);
+            throw e;
+        }
+        metrics.record(System.nanoTime() - start, 1);
+        return ret;
+    }
+
+    private CompletableFuture<Object> measure(CompletableFuture<Object> future, long start) {
+        return future.whenComplete((value, throwable) -> {
+            long elapsed = System.nanoTime() - start;
+            if (throwable == null) {
+                metrics.record(elapsed, 1);
+            } else if (Util.unwrap(throwable) instanceof InterruptException) {
+                metrics.recordInterrupt(elapsed, 1);
+            } else {
+                metrics.recordFailure(elapsed, 1);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Object> async(Object o) {
+        if (!owner.isEnabled()) {
+            return body.async(o);
+        }
+        long start = System.nanoTime();
+        return measure(body.async(o), start);
+    }
+
+    @Override
+    public CompletableFuture<Object> async(Object o, Executor executor) {
+        return async(o, executor, null);
+    }
+
+    /**
+     * Starts the wrapped action, passing the deadline on if it is a nested pipeline.
+     */
+    CompletableFuture<Object> async(Object o, Executor executor, Deadline deadline) {
+        boolean enabled = owner.isEnabled();
+        long start = enabled ? System.nanoTime() : 0;
+        CompletableFuture<Object> ret;
+        if (deadline != null && body instanceof Pipeline) {
+            ret = ((Pipeline<?>) body).async(o, executor, deadline);
+        } else {
+            ret = body.async(o, executor);
+        }
+        return enabled ? measure(ret, start) : ret;
+    }
+
+    static final class Batch extends MeasuredAction implements BatchAction<Object, Object> {
+
+        Batch(BatchAction<Object, Object> body, Action<?, ?> origin, StageMetrics metrics, InstrumentedPipeline<?> owner) {
+            super(body, origin, metrics, owner);
+        }
+
+        @Override
+        public List<Object> executeBatch(List<Object> batch) throws Throwable {
+            BatchAction<Object, Object> body = (BatchAction<Object, Object>) this.body;
+            if (!owner.isEnabled() || batch.isEmpty()) {
+                return body.executeBatch(batch);
+            }
+            int size = batch.size();
+            long start = System.nanoTime();
+            List<Object> ret;
+            try {
+                ret = body.executeBatch(batch);
+            } catch (InterruptException e) {
+                metrics.recordInterrupt((System.nanoTime() - start) / size, size);
+                throw e;
+            } catch (Throwable e) {
+                metrics.recordFailure((System.nanoTime() - start) / size, size);
+                throw e;
+            }
+            long elapsed = (System.nanoTime() - start) / size;
+            int interrupted = 0;
+            for (Object value : ret) {
+                if (value instanceof InterruptException) {
+                    ++interrupted;
+                }
+            }
+            metrics.record(elapsed, size - interrupted);
+            metrics.recordInterrupt(elapsed, interrupted);
+            return ret;
+        }
+    }
+}
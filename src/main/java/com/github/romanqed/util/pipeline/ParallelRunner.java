@@ -0,0 +1,77 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Node;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes pipeline actions for many independent values in parallel.
+ * The values are claimed in chunks by several workers, one of which is the calling thread,
+ * and the others are executed by the common fork-join pool.
+ */
+final class ParallelRunner implements Runnable {
+    // The number of chunks per worker, to balance the load of the workers
+    private static final int CHUNKS = 8;
+
+    private final Node<?, Action<Object, Object>>[] body;
+    private final Object[] inputs;
+    private final Result[] results;
+    private final AtomicInteger next;
+    private final int chunk;
+
+    private ParallelRunner(Node<?, Action<Object, Object>>[] body, Object[] inputs, int parallelism) {
+        this.body = body;
+        this.inputs = inputs;
+        this.results = new Result[inputs.length];
+        this.next = new AtomicInteger();
+        this.chunk = (int) Math.max(1, inputs.length / ((long) parallelism * CHUNKS));
+    }
+
+    static List<Result> execute(Node<?, Action<Object, Object>>[] body, Collection<?> inputs, int parallelism) {
+        ParallelRunner runner = new ParallelRunner(body, inputs.toArray(), parallelism);
+        int workers = (int) Math.min(parallelism, ((long) runner.inputs.length + runner.chunk - 1) / runner.chunk);
+        ForkJoinTask<?>[] helpers = new ForkJoinTask<?>[Math.max(0, workers - 1)];
+        for (int i = 0; i < helpers.length; ++i) {
+            helpers[i] = ForkJoinPool.commonPool().submit(runner);
+        }
+        runner.run();
+        for (ForkJoinTask<?> helper : helpers) {
+            helper.join();
+        }
+        return Arrays.asList(runner.results);
+    }
+
+    static Result apply(Node<?, Action<Object, Object>>[] body, Object o) {
+        Object data = o;
+        try {
+            for (Node<?, Action<Object, Object>> node : body) {
+                data = node.getValue().execute(data);
+            }
+        } catch (InterruptException e) {
+            return Result.interrupted(e.getBody());
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            return Result.failure(e);
+        }
+        return Result.success(data);
+    }
+
+    @Override
+    public void run() {
+        int length = inputs.length;
+        int start;
+        while ((start = next.getAndAdd(chunk)) < length) {
+            int end = Math.min(start + chunk, length);
+            for (int i = start; i < end; ++i) {
+                results[i] = apply(body, inputs[i]);
+            }
+        }
+    }
+}
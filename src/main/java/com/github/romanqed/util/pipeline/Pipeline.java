@@ -3,8 +3,16 @@ package com.github.romanqed.util.pipeline;
 import com.github.romanqed.util.Action;
 import com.github.romanqed.util.Node;
 
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * <p>An interface describing a structure capable of storing and editing the order of sequentially executed actions.</p>
@@ -13,6 +21,7 @@ import java.util.Objects;
  * <p>Since the pipeline is the heir of the action, nested pipelines can be created.</p>
  * <p>Access and editing of all actions is performed by the key.</p>
  * <p>It has built-in support for asynchronous execution.</p>
+ * <p>Several changes can be published atomically by {@link #update(Consumer)}.</p>
  *
  * @param <T> The type of value to be used as the key.
  */
@@ -96,19 +105,229 @@ public interface Pipeline<T> extends Action<Object, Object>, Iterable<Node<T, Ac
     boolean isEmpty();
 
     /**
-     * Puts all actions from received pipeline at the end of the chain of actions.
+     * <p>Applies the transaction to a working copy of the pipeline and publishes the result atomically.</p>
+     * <p>Executions that have already started finish with the actions they started with,
+     * and the ones started later see all changes made by the transaction at once.
+     * If the transaction throws an exception, nothing is published.</p>
+     * <p>The transaction must modify only the passed working copy.</p>
+     * <p>The default implementation passes the pipeline itself as the working copy, so the changes
+     * are applied one by one and are not rolled back. Implementations supporting transactions override it.</p>
+     *
+     * @param transaction the consumer that changes the working copy
+     */
+    default void update(Consumer<? super Pipeline<T>> transaction) {
+        Objects.requireNonNull(transaction);
+        transaction.accept(this);
+    }
+
+    /**
+     * Returns the version of the pipeline, which is incremented by each published change.
+     * The default implementation does not count the changes and always returns 0.
+     *
+     * @return the version number
+     */
+    default long getVersion() {
+        return 0;
+    }
+
+    /**
+     * Nested pipelines are always started asynchronously.
+     *
+     * @return true
+     */
+    @Override
+    default boolean isAsync() {
+        return true;
+    }
+
+    /**
+     * <p>Returns completable future contains this pipeline executing by the specified executor.</p>
+     * <p>The actions are executed one after another inside a single task, a new task is submitted
+     * to the executor only before the actions marked with {@link AsyncStage}.</p>
+     *
+     * @param o        the pipeline argument
+     * @param executor the executor to use for asynchronous execution
+     * @return {@link CompletableFuture} returns pipeline result
+     */
+    @Override
+    default CompletableFuture<Object> async(Object o, Executor executor) {
+        Objects.requireNonNull(executor);
+        return AsyncRunner.run(Util.snapshot(this), o, executor);
+    }
+
+    /**
+     * <p>Returns completable future contains this pipeline executing by the specified executor
+     * within the specified deadline.</p>
+     * <p>Once the deadline has passed, the actions that have not yet been started are skipped
+     * and the future is completed with {@link java.util.concurrent.TimeoutException}.
+     * The actions can get the remaining time budget by {@link Deadline#current()}.</p>
+     *
+     * @param o        the pipeline argument
+     * @param executor the executor to use for asynchronous execution
+     * @param deadline the deadline of the execution
+     * @return {@link CompletableFuture} returns pipeline result
+     */
+    default CompletableFuture<Object> async(Object o, Executor executor, Deadline deadline) {
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(deadline);
+        return AsyncRunner.run(Util.snapshot(this), o, executor, deadline);
+    }
+
+    /**
+     * Returns completable future contains this pipeline executing by the common pool within the specified deadline.
+     *
+     * @param o        the pipeline argument
+     * @param deadline the deadline of the execution
+     * @return {@link CompletableFuture} returns pipeline result
+     */
+    default CompletableFuture<Object> async(Object o, Deadline deadline) {
+        return async(o, ForkJoinPool.commonPool(), deadline);
+    }
+
+    /**
+     * <p>Executes the pipeline starting from the action with the specified key,
+     * skipping the actions before it.</p>
+     * <p>If an action throws an exception, it is wrapped into a {@link StageException} containing
+     * the key of the failed action and the value passed to it, so the execution can be resumed from it.</p>
+     *
+     * @param key the key of the action to start from
+     * @param o   the argument of the action to start from
+     * @return the pipeline result
+     * @throws NoSuchElementException if the pipeline does not contain the key
+     * @throws StageException         if an action throws an exception
+     * @throws Throwable              any error thrown in the pipeline process
+     */
+    default Object executeFrom(T key, Object o) throws Throwable {
+        Objects.requireNonNull(key);
+        Node<T, Action<Object, Object>>[] body = Util.snapshot(this);
+        int index = Util.indexOf(body, key);
+        if (index < 0) {
+            throw new NoSuchElementException();
+        }
+        return Util.executeFrom(body, index, o);
+    }
+
+    /**
+     * <p>Returns completable future contains this pipeline executing by the specified executor
+     * starting from the action with the specified key.</p>
+     * <p>If an action throws an exception, the future is completed with a {@link StageException}.</p>
+     *
+     * @param key      the key of the action to start from
+     * @param o        the argument of the action to start from
+     * @param executor the executor to use for asynchronous execution
+     * @return {@link CompletableFuture} returns pipeline result
+     * @throws NoSuchElementException if the pipeline does not contain the key
+     */
+    default CompletableFuture<Object> asyncFrom(T key, Object o, Executor executor) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(executor);
+        Node<T, Action<Object, Object>>[] body = Util.snapshot(this);
+        int index = Util.indexOf(body, key);
+        if (index < 0) {
+            throw new NoSuchElementException();
+        }
+        return AsyncRunner.run(body, index, o, executor, null, true);
+    }
+
+    /**
+     * Returns completable future contains this pipeline executing by the common pool
+     * starting from the action with the specified key.
+     *
+     * @param key the key of the action to start from
+     * @param o   the argument of the action to start from
+     * @return {@link CompletableFuture} returns pipeline result
+     * @throws NoSuchElementException if the pipeline does not contain the key
+     */
+    default CompletableFuture<Object> asyncFrom(T key, Object o) {
+        return asyncFrom(key, o, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * <p>Executes the pipeline for a batch of values stage by stage:
+     * the first action for all values, then the second one, and so on.</p>
+     * <p>Actions implementing {@link BatchAction} process all values in one call.
+     * Values, which processing was interrupted, drop out of the batch individually.</p>
+     *
+     * @param inputs the values to be processed
+     * @return list of results in the order of the values
+     * @throws Throwable any exception that can be thrown in the pipeline process
+     */
+    default List<Object> executeBatch(List<?> inputs) throws Throwable {
+        Objects.requireNonNull(inputs);
+        return BatchRunner.execute(Util.snapshot(this), inputs);
+    }
+
+    /**
+     * <p>Executes the pipeline for many independent values in parallel.</p>
+     * <p>The values are processed by at most the specified number of workers: the calling thread
+     * and the threads of the common fork-join pool. All values are processed by the same actions,
+     * even if the pipeline is changed concurrently.</p>
+     * <p>Interrupts and exceptions are captured for each value individually.</p>
+     *
+     * @param inputs      the values to be processed
+     * @param parallelism the maximum number of workers
+     * @return list of results in the order of the values
+     */
+    default List<Result> executeAll(Collection<?> inputs, int parallelism) {
+        Objects.requireNonNull(inputs);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        return ParallelRunner.execute(Util.snapshot(this), inputs, parallelism);
+    }
+
+    /**
+     * <p>Returns a function executing the pipeline and capturing its outcome into a {@link Result}.</p>
+     * <p>The function is thread-safe and does not throw exceptions, so it can be used
+     * to map parallel streams, for example, {@code inputs.parallelStream().map(pipeline.toFunction())}.</p>
+     *
+     * @return {@link Function} instance
+     */
+    default Function<Object, Result> toFunction() {
+        return o -> ParallelRunner.apply(Util.snapshot(this), o);
+    }
+
+    /**
+     * <p>Binds the action with the specified key to the executor by wrapping it into an {@link AsyncStage}.</p>
+     * <p>During asynchronous execution, the action is executed by this executor,
+     * and the following actions return to the executor of the pipeline.</p>
+     *
+     * @param key      the key of the action
+     * @param executor the executor to bind, or null to unbind the action
+     * @throws NoSuchElementException if the pipeline does not contain the key
+     */
+    @SuppressWarnings("unchecked")
+    default void setExecutor(T key, Executor executor) {
+        Objects.requireNonNull(key);
+        update(pipeline -> {
+            Action<Object, Object> action = (Action<Object, Object>) pipeline.get(key);
+            if (action == null) {
+                throw new NoSuchElementException();
+            }
+            if (action instanceof AsyncStage) {
+                action = ((AsyncStage<Object, Object>) action).getBody();
+            }
+            pipeline.put(key, executor == null ? action : new AsyncStage<>(action, executor));
+        });
+    }
+
+    /**
+     * Puts all actions from received pipeline at the end of the chain of actions in one atomic change.
      *
      * @param value pipeline to be put
      */
     default void putAll(Pipeline<T> value) {
         Objects.requireNonNull(value);
-        for (Node<T, Action<Object, Object>> node : value) {
-            put(node.getKey(), node.getValue());
-        }
+        update(pipeline -> {
+            for (Node<T, Action<Object, Object>> node : value) {
+                pipeline.put(node.getKey(), node.getValue());
+            }
+        });
     }
 
     /**
-     * Inserts all actions from received pipeline with after an action with a key equal to the one received.
+     * Inserts all actions from received pipeline with after an action with a key equal to the one received
+     * in one atomic change.
      *
      * @param key   the key after which the insert will be
      * @param value pipeline to be inserted
@@ -116,14 +335,18 @@ public interface Pipeline<T> extends Action<Object, Object>, Iterable<Node<T, Ac
     default void insertAfter(T key, Pipeline<T> value) {
         Objects.requireNonNull(key);
         Objects.requireNonNull(value);
-        for (Node<T, Action<Object, Object>> node : value) {
-            insertAfter(key, node.getKey(), node.getValue());
-            key = node.getKey();
-        }
+        update(pipeline -> {
+            T previous = key;
+            for (Node<T, Action<Object, Object>> node : value) {
+                pipeline.insertAfter(previous, node.getKey(), node.getValue());
+                previous = node.getKey();
+            }
+        });
     }
 
     /**
-     * Inserts all actions from received pipeline with before an action with a key equal to the one received.
+     * Inserts all actions from received pipeline with before an action with a key equal to the one received
+     * in one atomic change.
      *
      * @param key   the key before which the insert will be
      * @param value pipeline to be inserted
@@ -131,37 +354,41 @@ public interface Pipeline<T> extends Action<Object, Object>, Iterable<Node<T, Ac
     default void insertBefore(T key, Pipeline<T> value) {
         Objects.requireNonNull(key);
         Objects.requireNonNull(value);
-        Iterator<Node<T, Action<Object, Object>>> iterator = value.iterator();
-        if (!iterator.hasNext()) {
-            return;
-        }
-        Node<T, Action<Object, Object>> toAdd = iterator.next();
-        insertBefore(key, toAdd.getKey(), toAdd.getValue());
-        key = toAdd.getKey();
-        while (iterator.hasNext()) {
-            toAdd = iterator.next();
-            insertAfter(key, toAdd.getKey(), toAdd.getValue());
-            key = toAdd.getKey();
-        }
+        update(pipeline -> {
+            Iterator<Node<T, Action<Object, Object>>> iterator = value.iterator();
+            if (!iterator.hasNext()) {
+                return;
+            }
+            Node<T, Action<Object, Object>> toAdd = iterator.next();
+            pipeline.insertBefore(key, toAdd.getKey(), toAdd.getValue());
+            T previous = toAdd.getKey();
+            while (iterator.hasNext()) {
+                toAdd = iterator.next();
+                pipeline.insertAfter(previous, toAdd.getKey(), toAdd.getValue());
+                previous = toAdd.getKey();
+            }
+        });
     }
 
     /**
-     * Inserts all actions from received pipeline at the beginning of the pipeline
+     * Inserts all actions from received pipeline at the beginning of the pipeline in one atomic change.
      *
      * @param value pipeline to be inserted
      */
     default void insertFirst(Pipeline<T> value) {
         Objects.requireNonNull(value);
-        Iterator<Node<T, Action<Object, Object>>> iterator = value.iterator();
-        if (!iterator.hasNext()) {
-            return;
-        }
-        Node<T, Action<Object, Object>> first = iterator.next();
-        insertFirst(first.getKey(), first.getValue());
-        while (iterator.hasNext()) {
-            Node<T, Action<Object, Object>> next = iterator.next();
-            insertAfter(first.getKey(), next.getKey(), next.getValue());
-            first = next;
-        }
+        update(pipeline -> {
+            Iterator<Node<T, Action<Object, Object>>> iterator = value.iterator();
+            if (!iterator.hasNext()) {
+                return;
+            }
+            Node<T, Action<Object, Object>> first = iterator.next();
+            pipeline.insertFirst(first.getKey(), first.getValue());
+            while (iterator.hasNext()) {
+                Node<T, Action<Object, Object>> next = iterator.next();
+                pipeline.insertAfter(first.getKey(), next.getKey(), next.getValue());
+                first = next;
+            }
+        });
     }
 }
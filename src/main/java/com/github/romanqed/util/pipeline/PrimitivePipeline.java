@@ -0,0 +1,232 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Node;
+
+import java.util.*;
+
+/**
+ * <p>A base for pipelines of primitive actions, which pass values between stages without boxing.</p>
+ * <p>Access and editing of all actions is performed by the key, as in {@link Pipeline}.
+ * Each mutation publishes a new immutable snapshot of the actions, so execution never locks.</p>
+ * <p>Execution may be interrupted by throwing an {@link InterruptException}. If the body of the interrupt
+ * is a {@link Number}, its value is returned, otherwise the value passed to the interrupting action.</p>
+ *
+ * @param <T> The type of value to be used as the key.
+ * @param <A> The type of primitive action.
+ */
+public abstract class PrimitivePipeline<T, A> implements Iterable<Node<T, A>> {
+    private final Object lock;
+    private volatile Snapshot<T, A> snapshot;
+
+    PrimitivePipeline() {
+        this.lock = new Object();
+        this.snapshot = new Snapshot<>(new Object[0], allocate(0));
+    }
+
+    abstract A[] allocate(int length);
+
+    final A[] actions() {
+        return snapshot.actions;
+    }
+
+    /**
+     * Returns the action belonging to the passed key.
+     *
+     * @param key action key, cannot be null.
+     * @return found action or null
+     */
+    public A get(T key) {
+        Objects.requireNonNull(key);
+        Snapshot<T, A> snapshot = this.snapshot;
+        Integer index = snapshot.indexes.get(key);
+        return index == null ? null : snapshot.actions[index];
+    }
+
+    /**
+     * Puts a value with a key at the end of the chain of actions.
+     *
+     * @param key   action key to be inserted
+     * @param value action to be inserted
+     * @return an action that has already been with the same key, or null
+     */
+    public A put(T key, A value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        synchronized (lock) {
+            Snapshot<T, A> snapshot = this.snapshot;
+            Integer index = snapshot.indexes.get(key);
+            if (index != null) {
+                A[] actions = snapshot.actions.clone();
+                A ret = actions[index];
+                actions[index] = value;
+                this.snapshot = new Snapshot<>(snapshot.keys, actions, snapshot.indexes);
+                return ret;
+            }
+            insert(snapshot, snapshot.keys.length, key, value);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the action by key.
+     *
+     * @param key the key by which the search and deletion will be performed.
+     * @return removed action, if it existed, or null
+     */
+    public A remove(T key) {
+        Objects.requireNonNull(key);
+        synchronized (lock) {
+            Snapshot<T, A> snapshot = this.snapshot;
+            Integer index = snapshot.indexes.get(key);
+            if (index == null) {
+                return null;
+            }
+            int length = snapshot.keys.length;
+            Object[] keys = new Object[length - 1];
+            A[] actions = allocate(length - 1);
+            System.arraycopy(snapshot.keys, 0, keys, 0, index);
+            System.arraycopy(snapshot.keys, index + 1, keys, index, length - index - 1);
+            System.arraycopy(snapshot.actions, 0, actions, 0, index);
+            System.arraycopy(snapshot.actions, index + 1, actions, index, length - index - 1);
+            this.snapshot = new Snapshot<>(keys, actions);
+            return snapshot.actions[index];
+        }
+    }
+
+    /**
+     * Checks whether the pipeline contains a key.
+     *
+     * @param key the key to be checked
+     * @return result of checking
+     */
+    public boolean contains(T key) {
+        return snapshot.indexes.containsKey(key);
+    }
+
+    private void insert(Snapshot<T, A> snapshot, int index, T key, A value) {
+        int length = snapshot.keys.length;
+        Object[] keys = new Object[length + 1];
+        A[] actions = allocate(length + 1);
+        System.arraycopy(snapshot.keys, 0, keys, 0, index);
+        System.arraycopy(snapshot.keys, index, keys, index + 1, length - index);
+        System.arraycopy(snapshot.actions, 0, actions, 0, index);
+        System.arraycopy(snapshot.actions, index, actions, index + 1, length - index);
+        keys[index] = key;
+        actions[index] = value;
+        this.snapshot = new Snapshot<>(keys, actions);
+    }
+
+    private void insert(T key, T insertKey, A value, int offset) {
+        Objects.requireNonNull(insertKey);
+        Objects.requireNonNull(value);
+        synchronized (lock) {
+            Snapshot<T, A> snapshot = this.snapshot;
+            if (snapshot.indexes.containsKey(insertKey)) {
+                throw new IllegalStateException("Pipeline already contains key " + insertKey + "!");
+            }
+            int index = 0;
+            if (key != null) {
+                Integer found = snapshot.indexes.get(key);
+                if (found == null) {
+                    throw new NoSuchElementException();
+                }
+                index = found + offset;
+            }
+            insert(snapshot, index, insertKey, value);
+        }
+    }
+
+    /**
+     * Inserts an action with an insert key after an action with a key equal to the one received.
+     *
+     * @param key       the key after which the insert will be
+     * @param insertKey the key to insert with
+     * @param value     the action to insert
+     */
+    public void insertAfter(T key, T insertKey, A value) {
+        insert(Objects.requireNonNull(key), insertKey, value, 1);
+    }
+
+    /**
+     * Inserts an action with an insert key before an action with a key equal to the one received.
+     *
+     * @param key       the key before which the insert will be
+     * @param insertKey the key to insert with
+     * @param value     the action to insert
+     */
+    public void insertBefore(T key, T insertKey, A value) {
+        insert(Objects.requireNonNull(key), insertKey, value, 0);
+    }
+
+    /**
+     * Inserts an action at the beginning of the pipeline
+     *
+     * @param key   the key to insert with
+     * @param value the action to insert
+     */
+    public void insertFirst(T key, A value) {
+        insert(null, key, value, 0);
+    }
+
+    /**
+     * Clears pipeline.
+     */
+    public void clear() {
+        synchronized (lock) {
+            snapshot = new Snapshot<>(new Object[0], allocate(0));
+        }
+    }
+
+    /**
+     * Returns size of pipeline.
+     *
+     * @return number of actions in the pipeline
+     */
+    public int size() {
+        return snapshot.keys.length;
+    }
+
+    /**
+     * Checks if pipeline is empty.
+     *
+     * @return boolean flag
+     */
+    public boolean isEmpty() {
+        return snapshot.keys.length == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Node<T, A>> iterator() {
+        Snapshot<T, A> snapshot = this.snapshot;
+        List<Node<T, A>> ret = new ArrayList<>(snapshot.keys.length);
+        for (int i = 0; i < snapshot.keys.length; ++i) {
+            ret.add(new Node<>((T) snapshot.keys[i], snapshot.actions[i]));
+        }
+        return Collections.unmodifiableList(ret).iterator();
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(snapshot.keys);
+    }
+
+    private static final class Snapshot<T, A> {
+        private final Object[] keys;
+        private final A[] actions;
+        private final Map<Object, Integer> indexes;
+
+        private Snapshot(Object[] keys, A[] actions, Map<Object, Integer> indexes) {
+            this.keys = keys;
+            this.actions = actions;
+            this.indexes = indexes;
+        }
+
+        private Snapshot(Object[] keys, A[] actions) {
+            this(keys, actions, new HashMap<>());
+            for (int i = 0; i < keys.length; ++i) {
+                indexes.put(keys[i], i);
+            }
+        }
+    }
+}
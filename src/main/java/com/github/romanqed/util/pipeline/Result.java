@@ -0,0 +1,79 @@
+package com.github.romanqed.util.pipeline;
+
+/**
+ * <p>The outcome of the pipeline execution for a single value.</p>
+ * <p>The execution either completes with a value, is interrupted by an {@link InterruptException},
+ * or fails with an exception.</p>
+ */
+public final class Result {
+    private final Object value;
+    private final Throwable error;
+    private final boolean interrupted;
+
+    private Result(Object value, Throwable error, boolean interrupted) {
+        this.value = value;
+        this.error = error;
+        this.interrupted = interrupted;
+    }
+
+    static Result success(Object value) {
+        return new Result(value, null, false);
+    }
+
+    static Result interrupted(Object body) {
+        return new Result(body, null, true);
+    }
+
+    static Result failure(Throwable error) {
+        return new Result(null, error, false);
+    }
+
+    /**
+     * @return the result of the pipeline or the body of the interrupt, or null if the execution failed
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @return the exception thrown by the pipeline, or null if the execution did not fail
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return true if the execution was interrupted, false otherwise
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * @return true if the execution failed, false otherwise
+     */
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    /**
+     * Returns the value or throws the exception, as the pipeline execution would do.
+     *
+     * @return the result of the pipeline or the body of the interrupt
+     * @throws Throwable the exception thrown by the pipeline
+     */
+    public Object get() throws Throwable {
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return "Failed{" + error + "}";
+        }
+        return (interrupted ? "Interrupted{" : "Success{") + value + "}";
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.romanqed.util.pipeline;
+
+/**
+ * <p>An exception that is thrown when a stage of the pipeline started by
+ * {@link Pipeline#executeFrom(Object, Object)} fails.</p>
+ * <p>It records the key of the failed stage and the value passed to it, so the execution
+ * can be resumed from this stage without repeating the stages that have already succeeded.</p>
+ * <p>The original exception is available as the cause.</p>
+ */
+public class StageException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final Object key;
+    private final Object lastCompleted;
+    private final Object input;
+
+    public StageException(Object key, Object lastCompleted, Object input, Throwable cause) {
+        super("Stage " + key + " failed", cause);
+        this.key = key;
+        this.lastCompleted = lastCompleted;
+        this.input = input;
+    }
+
+    /**
+     * @return the key of the failed stage
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+     * @return the key of the last completed stage, or null if the failed stage was the first one executed
+     */
+    public Object getLastCompleted() {
+        return lastCompleted;
+    }
+
+    /**
+     * @return the value passed to the failed stage
+     */
+    public Object getInput() {
+        return input;
+    }
+}
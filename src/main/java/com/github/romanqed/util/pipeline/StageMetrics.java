@@ -0,0 +1,86 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.concurrent.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Metrics of a single pipeline stage collected by {@link InstrumentedPipeline}.</p>
+ * <p>All counters are lock-free and can be read at any time.</p>
+ */
+public final class StageMetrics {
+    private final LongAdder invocations;
+    private final LongAdder failures;
+    private final LongAdder interrupts;
+    private final Histogram latency;
+
+    StageMetrics() {
+        this.invocations = new LongAdder();
+        this.failures = new LongAdder();
+        this.interrupts = new LongAdder();
+        this.latency = new Histogram();
+    }
+
+    void record(long nanos, long times) {
+        invocations.add(times);
+        latency.record(nanos, times);
+    }
+
+    void recordInterrupt(long nanos, long times) {
+        record(nanos, times);
+        interrupts.add(times);
+    }
+
+    void recordFailure(long nanos, long times) {
+        record(nanos, times);
+        failures.add(times);
+    }
+
+    /**
+     * @return the number of times the stage was executed
+     */
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    /**
+     * @return the number of exceptions thrown by the stage, except {@link InterruptException}
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of times the stage interrupted the pipeline
+     */
+    public long getInterrupts() {
+        return interrupts.sum();
+    }
+
+    /**
+     * @return the histogram of the stage execution time in nanoseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Resets all the metrics.
+     */
+    public void reset() {
+        invocations.reset();
+        failures.reset();
+        interrupts.reset();
+        latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "{invocations=" + getInvocations() +
+                ", failures=" + getFailures() +
+                ", interrupts=" + getInterrupts() +
+                ", p50=" + latency.getPercentile(50) +
+                ", p99=" + latency.getPercentile(99) +
+                ", max=" + latency.getMax() + "}";
+    }
+}
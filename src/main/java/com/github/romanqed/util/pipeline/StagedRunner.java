@@ -0,0 +1,391 @@
+package com.github.romanqed.util.pipeline;
+
+import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Handler;
+import com.github.romanqed.util.Node;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>A runner that streams records through a pipeline in a staged manner.</p>
+ * <p>The actions of the pipeline are split into groups, each group has its own workers and a bounded queue,
+ * so different groups process different records at the same time.
+ * When a queue is full, the previous group (or the submitter) waits until there is space in it.</p>
+ * <p>Results are passed to the sink either in the order of submission or as they are completed.
+ * In the unordered mode the sink can be called concurrently.
+ * In the ordered mode the number of records in flight, including the processed ones waiting for
+ * an earlier record, is limited by the total capacity of the queues and the workers,
+ * so a slow record makes the submitter wait instead of growing the reorder buffer.
+ * Interrupted records are completed with the body of the interrupt, as in {@link Pipeline#execute(Object)}.</p>
+ * <p>The pipeline structure is captured when the runner is created.</p>
+ *
+ * @param <T> The type of value used as the key in the pipeline.
+ */
+public class StagedRunner<T> implements AutoCloseable {
+    private static final Item STOP = new Item(-1, null);
+
+    private final Group[] groups;
+    private final Handler<Object> sink;
+    private final BiConsumer<Object, Throwable> failure;
+    private final boolean ordered;
+    private final Semaphore window;
+    private final AtomicLong sequence;
+    private final ReadWriteLock closeLock;
+    private final CountDownLatch done;
+    private final Object lock;
+    private final Map<Long, Item> pending;
+    private long next;
+    private volatile boolean closed;
+
+    /**
+     * Creates the runner and starts its workers.
+     *
+     * @param pipeline the pipeline to run
+     * @param stages   the keys of the actions that start new groups, mapped to the number of group workers;
+     *                 the first action always starts a group, by default with one worker
+     * @param capacity the capacity of the queue of each group
+     * @param ordered  if true, results are passed to the sink in the order of submission
+     * @param sink     the handler accepting the results
+     * @param failure  the handler accepting the records that failed to be processed with their exceptions
+     * @param factory  the factory used to create the workers
+     */
+    public StagedRunner(Pipeline<T> pipeline,
+                        Map<T, Integer> stages,
+                        int capacity,
+                        boolean ordered,
+                        Handler<Object> sink,
+                        BiConsumer<Object, Throwable> failure,
+                        ThreadFactory factory) {
+        Objects.requireNonNull(stages);
+        Objects.requireNonNull(factory);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.groups = split(Util.snapshot(Objects.requireNonNull(pipeline)), stages, capacity);
+        this.sink = Objects.requireNonNull(sink);
+        this.failure = Objects.requireNonNull(failure);
+        this.ordered = ordered;
+        this.window = ordered ? new Semaphore(window(groups, capacity)) : null;
+        this.sequence = new AtomicLong();
+        this.closeLock = new ReentrantReadWriteLock();
+        this.done = new CountDownLatch(1);
+        this.lock = new Object();
+        this.pending = new HashMap<>();
+        this.next = 0;
+        this.closed = false;
+        for (int i = 0; i < groups.length; ++i) {
+            int index = i;
+            for (int j = 0; j < groups[i].parallelism; ++j) {
+                factory.newThread(() -> work(index)).start();
+            }
+        }
+    }
+
+    public StagedRunner(Pipeline<T> pipeline,
+                        Map<T, Integer> stages,
+                        int capacity,
+                        boolean ordered,
+                        Handler<Object> sink,
+                        BiConsumer<Object, Throwable> failure) {
+        this(pipeline, stages, capacity, ordered, sink, failure, Executors.defaultThreadFactory());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Group[] split(Node<T, Action<Object, Object>>[] body, Map<T, Integer> stages, int capacity) {
+        for (Map.Entry<T, Integer> entry : stages.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() < 1) {
+                throw new IllegalArgumentException("Parallelism of " + entry.getKey() + " must be positive");
+            }
+        }
+        List<Group> ret = new ArrayList<>();
+        List<Action<Object, Object>> actions = new ArrayList<>();
+        int parallelism = body.length == 0 ? 1 : stages.getOrDefault(body[0].getKey(), 1);
+        int found = 0;
+        for (int i = 0; i < body.length; ++i) {
+            Integer value = stages.get(body[i].getKey());
+            if (value != null) {
+                ++found;
+            }
+            if (i != 0 && value != null) {
+                ret.add(new Group((Action<Object, Object>[]) actions.toArray(new Action<?, ?>[0]), parallelism, capacity));
+                actions.clear();
+                parallelism = value;
+            }
+            actions.add(body[i].getValue());
+        }
+        if (found != stages.size()) {
+            throw new NoSuchElementException("Pipeline does not contain some of the stage keys");
+        }
+        ret.add(new Group((Action<Object, Object>[]) actions.toArray(new Action<?, ?>[0]), parallelism, capacity));
+        return ret.toArray(new Group[0]);
+    }
+
+    private static int window(Group[] groups, int capacity) {
+        long ret = 0;
+        for (Group group : groups) {
+            ret += (long) capacity + group.parallelism;
+        }
+        return (int) Math.min(ret, Integer.MAX_VALUE);
+    }
+
+    private static void put(BlockingQueue<Item> queue, Item item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits a record, waiting if the queue of the first group is full,
+     * or, in the ordered mode, if too many records are in flight.
+     *
+     * @param record the record to be processed
+     * @throws InterruptedException  if interrupted while waiting
+     * @throws IllegalStateException if the runner is closed
+     */
+    public void submit(Object record) throws InterruptedException {
+        checkClosed();
+        if (window != null) {
+            window.acquire();
+        }
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                release();
+                checkClosed();
+            }
+            Item item = new Item(sequence.getAndIncrement(), record);
+            try {
+                groups[0].queue.put(item);
+            } catch (InterruptedException e) {
+                skip(item);
+                throw e;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Submits a record if there is space in the queue of the first group.
+     *
+     * @param record the record to be processed
+     * @return true if the record was accepted, false otherwise
+     * @throws IllegalStateException if the runner is closed
+     */
+    public boolean offer(Object record) {
+        checkClosed();
+        if (window != null && !window.tryAcquire()) {
+            return false;
+        }
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                release();
+                checkClosed();
+            }
+            Item item = new Item(sequence.getAndIncrement(), record);
+            if (groups[0].queue.offer(item)) {
+                return true;
+            }
+            skip(item);
+            return false;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void release() {
+        if (window != null) {
+            window.release();
+        }
+    }
+
+    private void checkClosed() {
+        if (closed) {
+            throw new IllegalStateException("The runner is closed");
+        }
+    }
+
+    /**
+     * Stops accepting records and waits until all submitted records are processed.
+     * If the calling thread is interrupted while waiting, it keeps waiting,
+     * and its interrupt status is restored before returning.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stop(0);
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stop(int index) {
+        if (index == groups.length) {
+            done.countDown();
+            return;
+        }
+        Group group = groups[index];
+        for (int i = 0; i < group.parallelism; ++i) {
+            put(group.queue, STOP);
+        }
+    }
+
+    // Workers stop only by the stop item, otherwise the queue of the group is left without consumers
+    private void work(int index) {
+        Group group = groups[index];
+        boolean interrupted = false;
+        try {
+            while (true) {
+                Item item;
+                try {
+                    item = group.queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+                if (item == STOP) {
+                    break;
+                }
+                process(index, item);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (group.alive.decrementAndGet() == 0) {
+                stop(index + 1);
+            }
+        }
+    }
+
+    private void process(int index, Item item) {
+        Object data = item.data;
+        try {
+            for (Action<Object, Object> action : groups[index].actions) {
+                data = action.execute(data);
+            }
+        } catch (InterruptException e) {
+            item.data = e.getBody();
+            complete(item);
+            return;
+        } catch (Throwable e) {
+            item.data = null;
+            item.error = e;
+            complete(item);
+            return;
+        }
+        item.data = data;
+        if (index + 1 == groups.length) {
+            complete(item);
+        } else {
+            put(groups[index + 1].queue, item);
+        }
+    }
+
+    private void skip(Item item) {
+        item.skipped = true;
+        complete(item);
+    }
+
+    private void complete(Item item) {
+        if (!ordered) {
+            deliver(item);
+            return;
+        }
+        synchronized (lock) {
+            if (item.sequence != next) {
+                pending.put(item.sequence, item);
+                return;
+            }
+            deliver(item);
+            ++next;
+            int delivered = 1;
+            Item found;
+            while ((found = pending.remove(next)) != null) {
+                deliver(found);
+                ++next;
+                ++delivered;
+            }
+            window.release(delivered);
+        }
+    }
+
+    private void deliver(Item item) {
+        if (item.skipped) {
+            return;
+        }
+        try {
+            if (item.error != null) {
+                failure.accept(item.record, item.error);
+            } else {
+                sink.handle(item.data);
+            }
+        } catch (Throwable e) {
+            try {
+                failure.accept(item.record, e);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    private static final class Item {
+        private final long sequence;
+        private final Object record;
+        private Object data;
+        private Throwable error;
+        private boolean skipped;
+
+        private Item(long sequence, Object data) {
+            this.sequence = sequence;
+            this.record = data;
+            this.data = data;
+        }
+    }
+
+    private static final class Group {
+        private final Action<Object, Object>[] actions;
+        private final int parallelism;
+        private final BlockingQueue<Item> queue;
+        private final AtomicInteger alive;
+
+        private Group(Action<Object, Object>[] actions, int parallelism, int capacity) {
+            this.actions = actions;
+            this.parallelism = parallelism;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.alive = new AtomicInteger(parallelism);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package com.github.romanqed.util.pipeline;
 
 import com.github.romanqed.util.Action;
+import com.github.romanqed.util.Node;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 final class Util {
@@ -9,24 +16,110 @@ final class Util {
 
     static {
         EXCEPTION_HANDLER = throwable -> {
-            Throwable cause = throwable.getCause();
+            Throwable cause = unwrap(throwable);
             if (cause instanceof InterruptException) {
                 return ((InterruptException) cause).getBody();
             }
             if (cause instanceof Error) {
                 throw (Error) cause;
             }
-            throw (RuntimeException) cause;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CompletionException(cause);
         };
     }
 
-    static Function<Object, Object> packToFunction(Action<Object, Object> action) {
+    static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+
+    static <T> Node<T, Action<Object, Object>>[] snapshot(Pipeline<T> pipeline) {
+        if (pipeline instanceof InstrumentedPipeline) {
+            return snapshot(((InstrumentedPipeline<T>) pipeline).delegate);
+        }
+        if (pipeline instanceof ArrayPipeline) {
+            return ((ArrayPipeline<T>) pipeline).snapshot();
+        }
+        if (pipeline instanceof LinkedPipeline) {
+            return ((LinkedPipeline<T>) pipeline).snapshot();
+        }
+        return collect(pipeline);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Node<T, Action<Object, Object>>[] collect(Iterable<Node<T, Action<Object, Object>>> pipeline) {
+        List<Node<T, Action<Object, Object>>> ret = new ArrayList<>();
+        for (Node<T, Action<Object, Object>> node : pipeline) {
+            ret.add(node);
+        }
+        return (Node<T, Action<Object, Object>>[]) ret.toArray(new Node<?, ?>[0]);
+    }
+
+    static <T> int indexOf(Node<T, Action<Object, Object>>[] body, T key) {
+        for (int i = 0; i < body.length; ++i) {
+            if (body[i].getKey().equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static Object executeFrom(Node<?, Action<Object, Object>>[] body, int start, Object o) throws Throwable {
+        Object data = o;
+        int i = start;
+        try {
+            for (; i < body.length; ++i) {
+                data = body[i].getValue().execute(data);
+            }
+        } catch (InterruptException e) {
+            return e.getBody();
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw stageException(body, start, i, data, e);
+        }
+        return data;
+    }
+
+    static StageException stageException(Node<?, Action<Object, Object>>[] body,
+                                         int start,
+                                         int index,
+                                         Object input,
+                                         Throwable cause) {
+        Object lastCompleted = index > start ? body[index - 1].getKey() : null;
+        return new StageException(body[index].getKey(), lastCompleted, input, cause);
+    }
+
+    @SuppressWarnings("unchecked")
+    static CompletionStage<Object> toStage(Object value) {
+        if (value instanceof CompletionStage) {
+            return (CompletionStage<Object>) value;
+        }
+        return CompletableFuture.completedFuture(value);
+    }
+
+    static CompletableFuture<Object> thenCompose(CompletableFuture<Object> future, Action<Object, Object> action) {
+        Function<Object, CompletionStage<Object>> function = packToFunction(action);
+        if (action instanceof AsyncStage) {
+            Executor executor = ((AsyncStage<Object, Object>) action).getExecutor();
+            if (executor != null) {
+                return future.thenComposeAsync(function, executor);
+            }
+        }
+        return future.thenComposeAsync(function);
+    }
+
+    static Function<Object, CompletionStage<Object>> packToFunction(Action<Object, Object> action) {
         return value -> {
+            if (action.isAsync()) {
+                return action.async(value);
+            }
             try {
-                if (action instanceof Pipeline) {
-                    return action.async(value).get();
-                }
-                return action.execute(value);
+                return toStage(action.execute(value));
             } catch (RuntimeException | Error e) {
                 throw e;
             } catch (Throwable e) {